@@ -6,8 +6,10 @@ import net.minecraftforge.fml.common.event.FMLInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLPostInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLPreInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLServerStartingEvent;
+import net.minecraftforge.fml.common.event.FMLServerStoppingEvent;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.PlayerEvent;
 import net.minecraftforge.fml.common.gameevent.TickEvent;
 import net.minecraftforge.fml.relauncher.Side;
 import net.minecraftforge.fml.relauncher.SideOnly;
@@ -17,7 +19,6 @@ import net.minecraft.client.renderer.chunk.RenderChunk;
 import net.minecraft.client.renderer.vertex.DefaultVertexFormats;
 import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.util.math.BlockPos;
-import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.World;
 import net.minecraft.world.WorldServer;
 import net.minecraft.world.chunk.Chunk;
@@ -34,13 +35,19 @@ import net.minecraft.util.text.TextComponentString;
 import net.minecraft.util.text.TextFormatting;
 import net.minecraft.world.biome.Biome;
 import net.minecraft.world.biome.BiomeProvider;
+import org.apache.logging.log4j.Logger;
 import org.lwjgl.opengl.GL11;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Mod(modid = CubicChunkMod.MODID, 
      name = CubicChunkMod.NAME, 
@@ -53,16 +60,29 @@ public class CubicChunkMod {
     public static final String NAME = "CubicChunk Mod";
     public static final String VERSION = "1.0.0";
     
+    public static Logger logger;
+    public static final CubicChunkMetrics METRICS = new CubicChunkMetrics();
+    public static final CubeArrayPool CUBE_ARRAYS = new CubeArrayPool();
+    public static final PristineCubeCache PRISTINE_CUBES = new PristineCubeCache();
+    
     // Configuration
     public static int MAX_VERTICAL_CHUNKS = 32;  // 512 blocks up/down from 0
     public static int CHUNK_SIZE_Y = 16;
     public static int WORLD_HEIGHT;
     public static int WORLD_MIN_Y;
+    public static int PUBLISH_BUDGET_MICROS = 5000; // Server thread time per tick for cube publication
+    public static int ARRAY_POOL_MAX_MB = 32; // Cube arrays kept for reuse after unloading
+    public static int PRISTINE_CACHE_MAX_MB = 16; // Compressed unmodified cubes kept in memory
+    public static boolean PRISTINE_DISK_CACHE = false; // Spill evicted unmodified cubes to disk
     
     // Chunk management
-    private final Map<Long, CubicChunk> loadedChunks = new ConcurrentHashMap<>();
     private final ChunkLoadingManager chunkLoadingManager;
-    private final ExecutorService chunkExecutor = Executors.newFixedThreadPool(4);
+    private final ExecutorService chunkExecutor =
+        Executors.newFixedThreadPool(ChunkLoadingManager.EXECUTOR_THREADS);
+    private final PregenerationManager pregenerator;
+    private final GenerationPipeline generationPipeline = new GenerationPipeline();
+    private final MainThreadExecutor mainThread = new MainThreadExecutor();
+    private final CubicChunkStats stats = new CubicChunkStats();
     
     // Rendering
     @SideOnly(Side.CLIENT)
@@ -76,10 +96,20 @@ public class CubicChunkMod {
         WORLD_MIN_Y = -WORLD_HEIGHT / 2;
         
         chunkLoadingManager = new ChunkLoadingManager();
+        pregenerator = new PregenerationManager();
+    }
+    
+    /** Stops the loader pool of an instance created outside the game, as the benchmarks do. */
+    void shutdownExecutor() {
+        chunkExecutor.shutdownNow();
     }
     
     @EventHandler
     public void preInit(FMLPreInitializationEvent event) {
+        logger = event.getModLog();
+        loadLimits(event.getSuggestedConfigurationFile());
+        generationPipeline.setOres(OreConfig.load(event.getSuggestedConfigurationFile()));
+        
         // Register event handlers
         MinecraftForge.EVENT_BUS.register(this);
         MinecraftForge.EVENT_BUS.register(new ChunkEventHandler());
@@ -89,12 +119,34 @@ public class CubicChunkMod {
         
         // Initialize systems
         ChunkStorageSystem.initialize();
+        registerStatsBean();
         
         if (event.getSide() == Side.CLIENT) {
             chunkRenderer = new CubicChunkRenderer();
         }
     }
     
+    /** Reads the memory and tick budgets; the fields keep their defaults for missing keys. */
+    private static void loadLimits(java.io.File file) {
+        net.minecraftforge.common.config.Configuration config =
+            new net.minecraftforge.common.config.Configuration(file);
+        config.load();
+        
+        String category = "limits";
+        PUBLISH_BUDGET_MICROS = Math.max(100, config.get(category, "publishBudgetMicros", PUBLISH_BUDGET_MICROS,
+            "Server thread time per tick for cube publication").getInt());
+        ARRAY_POOL_MAX_MB = Math.max(0, config.get(category, "arrayPoolMaxMB", ARRAY_POOL_MAX_MB,
+            "Cube arrays kept for reuse after unloading, 0 to disable").getInt());
+        PRISTINE_CACHE_MAX_MB = Math.max(0, config.get(category, "pristineCacheMaxMB", PRISTINE_CACHE_MAX_MB,
+            "Compressed unmodified cubes kept in memory").getInt());
+        PRISTINE_DISK_CACHE = config.get(category, "pristineDiskCache", PRISTINE_DISK_CACHE,
+            "Spill evicted unmodified cubes to disk").getBoolean();
+        
+        if (config.hasChanged()) {
+            config.save();
+        }
+    }
+    
     @EventHandler
     public void init(FMLInitializationEvent event) {
         // Register network handlers
@@ -117,6 +169,19 @@ public class CubicChunkMod {
     public void serverStarting(FMLServerStartingEvent event) {
         // Register commands
         event.registerServerCommand(new CommandCubicChunk());
+        
+        // Journal saves; each dimension replays leftovers when first touched
+        ChunkStorageSystem.openJournal();
+        
+        // Pick up an interrupted pregeneration job
+        pregenerator.resumeFromCheckpoint();
+    }
+    
+    @EventHandler
+    public void serverStopping(FMLServerStoppingEvent event) {
+        // Persist pregeneration progress before the world goes away
+        pregenerator.shutdown();
+        ChunkStorageSystem.closeJournal();
     }
     
     private void replaceChunkProviders() {
@@ -129,6 +194,15 @@ public class CubicChunkMod {
         // Register packet handlers for chunk data synchronization
     }
     
+    private void registerStatsBean() {
+        try {
+            java.lang.management.ManagementFactory.getPlatformMBeanServer().registerMBean(
+                stats, new javax.management.ObjectName("com.cubicchunk:type=Stats"));
+        } catch (javax.management.JMException e) {
+            logger.warn("Could not register CubicChunk stats MBean: {}", e);
+        }
+    }
+    
     private void registerWorldTypes() {
         // Register cubic chunk world type
     }
@@ -150,39 +224,113 @@ public class CubicChunkMod {
     public static class CubicChunk {
         public final int x, y, z;
         public final World world;
-        private final byte[] blockData;
-        private final byte[] metadata;
-        private final byte[] lightData;
-        private final byte[] biomeData;
+        // Borrowed from CUBE_ARRAYS, null once released
+        private byte[] blockData;
+        private byte[] metadata;
+        private byte[] lightData;
+        private byte[] biomeData;
+        private CubeArrayPool.Lease lease;
+        private boolean shared; // All zero, reading the shared zero arrays instead of a lease
+        // Loaded neighbours by neighbourSlot, this cube in the centre slot while indexed
+        private final CubicChunk[] neighbours = new CubicChunk[27];
         private boolean isDirty = false;
+        private boolean pristine = false; // Exactly what the generator produced
         private long lastAccessed;
         private boolean isEmpty = true;
         
         public CubicChunk(World world, int x, int y, int z) {
+            this(world, x, y, z, true);
+        }
+        
+        /** @param zeroed false if the caller overwrites all data straight away */
+        CubicChunk(World world, int x, int y, int z, boolean zeroed) {
             this.world = world;
             this.x = x;
             this.y = y;
             this.z = z;
             
-            int size = 16 * 16 * 16;
-            this.blockData = new byte[size];
-            this.metadata = new byte[size];
-            this.lightData = new byte[size];
-            this.biomeData = new byte[256]; // 16x16 biome IDs
+            this.lease = CUBE_ARRAYS.acquire(this, zeroed);
+            byte[][] arrays = lease.arrays;
+            this.blockData = arrays[0];
+            this.metadata = arrays[1];
+            this.lightData = arrays[2];
+            this.biomeData = arrays[3]; // 16x16 biome IDs
             
             this.lastAccessed = System.currentTimeMillis();
         }
         
+        /**
+         * Hands this cube's arrays back to the pool. Called once the cube is
+         * unloaded and its Unload event has been posted; any later access to
+         * its data fails instead of reading another cube's blocks.
+         */
+        public synchronized void release() {
+            if (isReleased()) return;
+            
+            if (lease != null) {
+                CUBE_ARRAYS.release(lease);
+            }
+            lease = null;
+            shared = false;
+            blockData = metadata = lightData = biomeData = null;
+            isDirty = false;
+        }
+        
+        public synchronized boolean isReleased() {
+            return lease == null && !shared;
+        }
+        
+        /**
+         * Hands the arrays of an all-zero cube (open sky, or deep void) back
+         * to the pool and reads the shared zero arrays instead, until the
+         * first write borrows a set again.
+         *
+         * @return true if the cube is now sharing
+         */
+        synchronized boolean compact() {
+            if (lease == null) return shared;
+            if (!CubeArrayPool.isZero(blockData) || !CubeArrayPool.isZero(metadata) ||
+                !CubeArrayPool.isZero(lightData) || !CubeArrayPool.isZero(biomeData)) return false;
+            
+            CUBE_ARRAYS.release(lease);
+            lease = null;
+            shared = true;
+            blockData = metadata = lightData = CubeArrayPool.ZERO_DATA;
+            biomeData = CubeArrayPool.ZERO_BIOMES;
+            return true;
+        }
+        
+        // Called before any write into the arrays
+        private void ensureWritable() {
+            if (shared) {
+                unshare();
+            }
+        }
+        
+        private synchronized void unshare() {
+            if (!shared) return;
+            
+            lease = CUBE_ARRAYS.acquire(this, true);
+            byte[][] arrays = lease.arrays;
+            blockData = arrays[0];
+            metadata = arrays[1];
+            lightData = arrays[2];
+            biomeData = arrays[3];
+            shared = false;
+        }
+        
         public byte getBlockID(int x, int y, int z) {
             int index = getIndex(x, y, z);
             return blockData[index];
         }
         
         public void setBlockID(int x, int y, int z, byte blockID) {
+            ensureWritable();
             int index = getIndex(x, y, z);
             blockData[index] = blockID;
             isEmpty = false;
             isDirty = true;
+            pristine = false;
             lastAccessed = System.currentTimeMillis();
         }
         
@@ -192,9 +340,11 @@ public class CubicChunkMod {
         }
         
         public void setMetadata(int x, int y, int z, byte meta) {
+            ensureWritable();
             int index = getIndex(x, y, z);
             metadata[index] = meta;
             isDirty = true;
+            pristine = false;
             lastAccessed = System.currentTimeMillis();
         }
         
@@ -205,9 +355,11 @@ public class CubicChunkMod {
         }
         
         public void setLight(int x, int y, int z, byte blockLight, byte skyLight) {
+            ensureWritable();
             int index = getIndex(x, y, z);
             lightData[index] = (byte)((skyLight << 4) | (blockLight & 0xF));
             isDirty = true;
+            pristine = false;
         }
         
         public byte getBiome(int x, int z) {
@@ -215,8 +367,10 @@ public class CubicChunkMod {
         }
         
         public void setBiome(int x, int z, byte biomeID) {
+            ensureWritable();
             biomeData[x + z * 16] = biomeID;
             isDirty = true;
+            pristine = false;
         }
         
         public boolean isDirty() {
@@ -227,6 +381,20 @@ public class CubicChunkMod {
             isDirty = false;
         }
         
+        /**
+         * Marks freshly generated (or cache-restored) data as unmodified: the
+         * cube is regenerated or restored from the pristine cache instead of
+         * being saved, until its first edit.
+         */
+        void markPristine() {
+            isDirty = false;
+            pristine = true;
+        }
+        
+        public boolean isPristine() {
+            return pristine;
+        }
+        
         public boolean isEmpty() {
             return isEmpty;
         }
@@ -235,6 +403,25 @@ public class CubicChunkMod {
             return lastAccessed;
         }
         
+        public StorageMode getStorageMode() {
+            return shared ? StorageMode.EMPTY : StorageMode.DENSE;
+        }
+        
+        /**
+         * Estimated, not measured: shallow size of this cube plus the arrays
+         * it holds on its own, assuming a 64-bit JVM with compressed oops
+         * (16 byte array headers, 8 byte alignment). An EMPTY cube holds no
+         * arrays of its own.
+         */
+        public long getEstimatedBytes() {
+            long arrays = lease != null ? CubeArrayPool.SET_BYTES : 0;
+            return 64 + arrays + arrayBytes(neighbours.length * 4);
+        }
+        
+        private static long arrayBytes(int length) {
+            return (16 + length + 7) & ~7L;
+        }
+        
         public void updateAccessTime() {
             lastAccessed = System.currentTimeMillis();
         }
@@ -256,6 +443,7 @@ public class CubicChunkMod {
         }
         
         public void loadData(byte[] blocks, byte[] metas, byte[] lights, byte[] biomes) {
+            ensureWritable();
             System.arraycopy(blocks, 0, blockData, 0, blockData.length);
             System.arraycopy(metas, 0, metadata, 0, metadata.length);
             System.arraycopy(lights, 0, lightData, 0, lightData.length);
@@ -263,12 +451,88 @@ public class CubicChunkMod {
             isEmpty = false;
         }
         
-        private int getIndex(int x, int y, int z) {
+        /** Called after the arrays were filled through {@link #dataBuffers}. */
+        void markLoaded() {
+            isEmpty = false;
+        }
+        
+        /** Reads blocks, metadata, light and biomes laid out as in a cube file. */
+        void loadData(byte[] data, int offset) {
+            ensureWritable();
+            System.arraycopy(data, offset, blockData, 0, blockData.length);
+            offset += blockData.length;
+            System.arraycopy(data, offset, metadata, 0, metadata.length);
+            offset += metadata.length;
+            System.arraycopy(data, offset, lightData, 0, lightData.length);
+            offset += lightData.length;
+            System.arraycopy(data, offset, biomeData, 0, biomeData.length);
+            isEmpty = false;
+        }
+        
+        /**
+         * The four arrays as buffers in cube file order, for reading a cube
+         * file straight into a cube that is not shared yet.
+         */
+        java.nio.ByteBuffer[] dataBuffers() {
+            ensureWritable();
+            return new java.nio.ByteBuffer[] {
+                java.nio.ByteBuffer.wrap(blockData), java.nio.ByteBuffer.wrap(metadata),
+                java.nio.ByteBuffer.wrap(lightData), java.nio.ByteBuffer.wrap(biomeData)
+            };
+        }
+        
+        /**
+         * Writes this cube in cube file layout without intermediate clones.
+         *
+         * @return false if the cube was already released
+         */
+        synchronized boolean copyDataTo(byte[] data, int offset) {
+            if (isReleased()) return false;
+            
+            System.arraycopy(blockData, 0, data, offset, blockData.length);
+            offset += blockData.length;
+            System.arraycopy(metadata, 0, data, offset, metadata.length);
+            offset += metadata.length;
+            System.arraycopy(lightData, 0, data, offset, lightData.length);
+            offset += lightData.length;
+            System.arraycopy(biomeData, 0, data, offset, biomeData.length);
+            return true;
+        }
+        
+        int getIndex(int x, int y, int z) {
             return (y << 8) | (z << 4) | x; // y * 256 + z * 16 + x
         }
         
+        /**
+         * The loaded cube at offset (dx, dy, dz), each in -1..1, or null if it
+         * is not loaded. (0, 0, 0) is this cube while it is in an index.
+         */
+        public CubicChunk getNeighbour(int dx, int dy, int dz) {
+            return neighbours[neighbourSlot(dx, dy, dz)];
+        }
+        
+        /** False once this cube has been unloaded from its dimension. */
+        public boolean isLinked() {
+            return neighbours[13] == this;
+        }
+        
+        static int neighbourSlot(int dx, int dy, int dz) {
+            return (dx + 1) * 9 + (dy + 1) * 3 + (dz + 1);
+        }
+        
+        void link(CubicChunk neighbour) {
+            neighbours[neighbourSlot(neighbour.x - x, neighbour.y - y, neighbour.z - z)] = neighbour;
+        }
+        
+        void unlink(CubicChunk neighbour) {
+            int slot = neighbourSlot(neighbour.x - x, neighbour.y - y, neighbour.z - z);
+            if (neighbours[slot] == neighbour) {
+                neighbours[slot] = null;
+            }
+        }
+        
         public long getChunkKey() {
-            return ChunkPos.asLong(x, z) | ((long) y << 32);
+            return CubeKeys.pack(x, y, z);
         }
         
         public BlockPos getMinPos() {
@@ -287,332 +551,3731 @@ public class CubicChunkMod {
         }
     }
     
-    // Chunk Loading Manager
-    public class ChunkLoadingManager implements Runnable {
-        private final Set<Long> chunksToLoad = ConcurrentHashMap.newKeySet();
-        private final Set<Long> chunksToUnload = ConcurrentHashMap.newKeySet();
-        private final Set<Long> activeChunks = ConcurrentHashMap.newKeySet();
-        private Thread managerThread;
-        private volatile boolean running = true;
+    /** EMPTY cubes are all zero and share one read-only set of arrays; DENSE cubes own a pooled set. */
+    public enum StorageMode {
+        EMPTY, DENSE
+    }
+    
+    /**
+     * Recycles cube storage arrays. Each cube borrows one set of block,
+     * metadata, light and biome arrays when it is created and returns it when
+     * it is released after unloading, so steady player movement reuses the
+     * same arrays instead of churning the young generation. An all-zero
+     * cube gives its set back early and reads {@link #ZERO_DATA} instead.
+     * Saves borrow file-sized scratch buffers from the same pool.
+     *
+     * At most {@link CubicChunkMod#ARRAY_POOL_MAX_MB} is kept; anything
+     * returned beyond that is left to the GC. Every borrowed set is tracked
+     * by a phantom reference to its cube: a cube collected without being
+     * released is reported as a leak and its arrays are reclaimed.
+     */
+    public static final class CubeArrayPool {
+        static final long SET_BYTES = 3 * CubicChunk.arrayBytes(4096) + CubicChunk.arrayBytes(256);
+        private static final long SCRATCH_BYTES = CubicChunk.arrayBytes(ChunkStorageSystem.CUBE_FILE_SIZE);
+        // Read by every EMPTY cube; never written
+        static final byte[] ZERO_DATA = new byte[4096];
+        static final byte[] ZERO_BIOMES = new byte[256];
         
-        public void start() {
-            managerThread = new Thread(this, "CubicChunk-Loader");
-            managerThread.setDaemon(true);
-            managerThread.start();
+        private final Queue<byte[][]> sets = new java.util.concurrent.ConcurrentLinkedQueue<>();
+        private final Queue<byte[]> scratch = new java.util.concurrent.ConcurrentLinkedQueue<>();
+        private final AtomicLong retainedBytes = new AtomicLong();
+        private final Set<Lease> leases = ConcurrentHashMap.newKeySet();
+        private final java.lang.ref.ReferenceQueue<CubicChunk> collected = new java.lang.ref.ReferenceQueue<>();
+        private final java.util.concurrent.atomic.AtomicBoolean leakReported =
+            new java.util.concurrent.atomic.AtomicBoolean();
+        
+        /** One cube's arrays, outstanding until released or found leaked. */
+        static final class Lease extends java.lang.ref.PhantomReference<CubicChunk> {
+            final byte[][] arrays;
+            final int x, y, z;
+            
+            Lease(CubicChunk owner, byte[][] arrays, java.lang.ref.ReferenceQueue<CubicChunk> queue) {
+                super(owner, queue);
+                this.arrays = arrays;
+                this.x = owner.x;
+                this.y = owner.y;
+                this.z = owner.z;
+            }
+        }
+        
+        /** @param zeroed false if the owner overwrites every byte itself */
+        Lease acquire(CubicChunk owner, boolean zeroed) {
+            reclaimLeaks();
+            
+            byte[][] arrays = sets.poll();
+            if (arrays != null) {
+                retainedBytes.addAndGet(-SET_BYTES);
+                METRICS.increment(MetricCounter.ARRAYS_REUSED);
+                if (zeroed) {
+                    for (byte[] array : arrays) {
+                        Arrays.fill(array, (byte) 0);
+                    }
+                }
+            } else {
+                arrays = new byte[][] { new byte[4096], new byte[4096], new byte[4096], new byte[256] };
+                METRICS.increment(MetricCounter.ARRAYS_ALLOCATED);
+            }
+            
+            Lease lease = new Lease(owner, arrays, collected);
+            leases.add(lease);
+            return lease;
+        }
+        
+        void release(Lease lease) {
+            if (!leases.remove(lease)) return;
+            
+            lease.clear();
+            offer(lease.arrays);
+        }
+        
+        static boolean isZero(byte[] array) {
+            for (byte b : array) {
+                if (b != 0) return false;
+            }
+            return true;
+        }
+        
+        byte[] acquireScratch() {
+            byte[] buffer = scratch.poll();
+            if (buffer != null) {
+                retainedBytes.addAndGet(-SCRATCH_BYTES);
+                return buffer;
+            }
+            return new byte[ChunkStorageSystem.CUBE_FILE_SIZE];
+        }
+        
+        void releaseScratch(byte[] buffer) {
+            if (reserve(SCRATCH_BYTES)) {
+                scratch.add(buffer);
+            }
+        }
+        
+        public long getRetainedBytes() {
+            return retainedBytes.get();
+        }
+        
+        /** Cubes holding pooled arrays right now. */
+        public int getOutstanding() {
+            return leases.size();
+        }
+        
+        private void offer(byte[][] arrays) {
+            if (reserve(SET_BYTES)) {
+                sets.add(arrays);
+            }
+        }
+        
+        private boolean reserve(long bytes) {
+            long max = (long) ARRAY_POOL_MAX_MB << 20;
+            while (true) {
+                long current = retainedBytes.get();
+                if (current + bytes > max) return false;
+                if (retainedBytes.compareAndSet(current, current + bytes)) return true;
+            }
+        }
+        
+        private void reclaimLeaks() {
+            java.lang.ref.Reference<? extends CubicChunk> reference;
+            while ((reference = collected.poll()) != null) {
+                Lease lease = (Lease) reference;
+                if (!leases.remove(lease)) continue;
+                
+                // The cube is unreachable, so nothing can touch these arrays any more
+                METRICS.increment(MetricCounter.ARRAY_LEAKS);
+                if (logger != null && leakReported.compareAndSet(false, true)) {
+                    logger.warn("Cube ({}, {}, {}) was collected without being released; " +
+                        "further leaks are only counted in /cubicchunk stats", lease.x, lease.y, lease.z);
+                }
+                offer(lease.arrays);
+            }
+        }
+    }
+    
+    /**
+     * Packs cube coordinates into a single long. Each axis is biased into 21
+     * unsigned bits and the three are bit-interleaved (Morton / Z-order), so
+     * every cube within +-1,048,576 cubes (about 16.7 million blocks) of the
+     * origin gets its own key, and sorting keys keeps nearby cubes together.
+     * Bit 63 is always clear, so signed comparison matches Z-order.
+     */
+    public static final class CubeKeys {
+        public static final int BITS = 21;
+        public static final int MIN_COORD = -(1 << (BITS - 1));
+        public static final int MAX_COORD = (1 << (BITS - 1)) - 1;
+        
+        /** Regions are 32x32x32 cube blocks: the low 5 bits of every axis. */
+        public static final int REGION_SHIFT = 15;
+        
+        private static final long X_MASK = 0x1249249249249249L;
+        private static final long Y_MASK = X_MASK << 1;
+        private static final long Z_MASK = X_MASK << 2;
+        private static final long[] AXIS_MASKS = {X_MASK, Y_MASK, Z_MASK};
+        
+        private CubeKeys() {}
+        
+        public static boolean inRange(int x, int y, int z) {
+            return x >= MIN_COORD && x <= MAX_COORD &&
+                   y >= MIN_COORD && y <= MAX_COORD &&
+                   z >= MIN_COORD && z <= MAX_COORD;
+        }
+        
+        public static long pack(int x, int y, int z) {
+            if (!inRange(x, y, z)) {
+                throw new IllegalArgumentException("Cube out of key range: " + x + ", " + y + ", " + z);
+            }
+            return spread(x - MIN_COORD) | (spread(y - MIN_COORD) << 1) | (spread(z - MIN_COORD) << 2);
+        }
+        
+        public static int x(long key) {
+            return compact(key) + MIN_COORD;
+        }
+        
+        public static int y(long key) {
+            return compact(key >>> 1) + MIN_COORD;
+        }
+        
+        public static int z(long key) {
+            return compact(key >>> 2) + MIN_COORD;
+        }
+        
+        public static long region(long key) {
+            return key >>> REGION_SHIFT;
+        }
+        
+        /** True if {@code key} lies in the box spanned by the corner keys {@code min} and {@code max}. */
+        public static boolean inBox(long key, long min, long max) {
+            for (long mask : AXIS_MASKS) {
+                long axis = key & mask;
+                if (axis < (min & mask) || axis > (max & mask)) return false;
+            }
+            return true;
+        }
+        
+        /**
+         * Smallest key greater than {@code key} that lies inside the box
+         * spanned by {@code min} and {@code max} (Tropf and Herzog's BIGMIN),
+         * so a range scan can skip the parts of the curve outside the box.
+         * Only meaningful when {@code min < key < max} and key is outside the box.
+         */
+        public static long nextInBox(long key, long min, long max) {
+            long bigMin = max;
+            for (int bit = 3 * BITS - 1; bit >= 0; bit--) {
+                long flag = 1L << bit;
+                long lower = AXIS_MASKS[bit % 3] & (flag - 1);
+                boolean k = (key & flag) != 0;
+                boolean lo = (min & flag) != 0;
+                boolean hi = (max & flag) != 0;
+                
+                if (!k && !lo && hi) {
+                    bigMin = (min | flag) & ~lower;
+                    max = (max & ~flag) | lower;
+                } else if (!k && lo && hi) {
+                    return min;
+                } else if (k && !lo && !hi) {
+                    return bigMin;
+                } else if (k && !lo && hi) {
+                    min = (min | flag) & ~lower;
+                }
+            }
+            return bigMin;
+        }
+        
+        private static long spread(long v) {
+            v &= 0x1FFFFFL;
+            v = (v | (v << 32)) & 0x001F00000000FFFFL;
+            v = (v | (v << 16)) & 0x001F0000FF0000FFL;
+            v = (v | (v << 8)) & 0x100F00F00F00F00FL;
+            v = (v | (v << 4)) & 0x10C30C30C30C30C3L;
+            v = (v | (v << 2)) & 0x1249249249249249L;
+            return v;
+        }
+        
+        private static int compact(long v) {
+            v &= 0x1249249249249249L;
+            v = (v ^ (v >>> 2)) & 0x10C30C30C30C30C3L;
+            v = (v ^ (v >>> 4)) & 0x100F00F00F00F00FL;
+            v = (v ^ (v >>> 8)) & 0x001F0000FF0000FFL;
+            v = (v ^ (v >>> 16)) & 0x001F00000000FFFFL;
+            v = (v ^ (v >>> 32)) & 0x1FFFFFL;
+            return (int) v;
+        }
+    }
+    
+    /**
+     * Loaded cubes of one dimension. Point lookups go through a hash map;
+     * a skip list over the same Morton keys serves box queries, neighbourhood
+     * iteration and region-ordered walks without scanning every cube.
+     * Writers are serialised so both views always hold the same cubes, and
+     * they keep every indexed cube linked to its loaded neighbours.
+     */
+    public static class CubeIndex {
+        private final Map<Long, CubicChunk> cubes = new ConcurrentHashMap<>();
+        private final ConcurrentSkipListMap<Long, CubicChunk> zOrder = new ConcurrentSkipListMap<>();
+        
+        public CubicChunk get(long key) {
+            return cubes.get(key);
+        }
+        
+        public boolean contains(long key) {
+            return cubes.containsKey(key);
+        }
+        
+        public int size() {
+            return cubes.size();
+        }
+        
+        public synchronized void put(long key, CubicChunk chunk) {
+            CubicChunk previous = cubes.put(key, chunk);
+            zOrder.put(key, chunk);
+            if (previous != null) {
+                unlinkNeighbours(previous);
+            }
+            linkNeighbours(chunk);
+        }
+        
+        public synchronized CubicChunk remove(long key) {
+            zOrder.remove(key);
+            CubicChunk chunk = cubes.remove(key);
+            if (chunk != null) {
+                unlinkNeighbours(chunk);
+            }
+            return chunk;
+        }
+        
+        public synchronized void clear() {
+            for (CubicChunk chunk : cubes.values()) {
+                Arrays.fill(chunk.neighbours, null);
+            }
+            zOrder.clear();
+            cubes.clear();
+        }
+        
+        /**
+         * Rebuilds the Z-order view and every neighbour link from the cubes
+         * in the hash map, keeping the cubes themselves.
+         *
+         * @return the number of cubes indexed
+         */
+        public synchronized int rebuild() {
+            zOrder.clear();
+            for (CubicChunk chunk : cubes.values()) {
+                Arrays.fill(chunk.neighbours, null);
+            }
+            for (Map.Entry<Long, CubicChunk> entry : cubes.entrySet()) {
+                zOrder.put(entry.getKey(), entry.getValue());
+                linkNeighbours(entry.getValue());
+            }
+            return cubes.size();
+        }
+        
+        private void linkNeighbours(CubicChunk chunk) {
+            chunk.link(chunk);
+            for (int dx = -1; dx <= 1; dx++) {
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int dz = -1; dz <= 1; dz++) {
+                        if ((dx | dy | dz) == 0 ||
+                            !CubeKeys.inRange(chunk.x + dx, chunk.y + dy, chunk.z + dz)) continue;
+                        
+                        CubicChunk neighbour = cubes.get(CubeKeys.pack(chunk.x + dx, chunk.y + dy, chunk.z + dz));
+                        if (neighbour != null) {
+                            chunk.link(neighbour);
+                            neighbour.link(chunk);
+                        }
+                    }
+                }
+            }
+        }
+        
+        private void unlinkNeighbours(CubicChunk chunk) {
+            for (CubicChunk neighbour : chunk.neighbours) {
+                if (neighbour != null && neighbour != chunk) {
+                    neighbour.unlink(chunk);
+                }
+            }
+            Arrays.fill(chunk.neighbours, null);
+        }
+        
+        /** All cubes in Z-order, so consecutive cubes are spatial neighbours. */
+        public Collection<CubicChunk> values() {
+            return zOrder.values();
+        }
+        
+        public void forEachInBox(int minX, int minY, int minZ, int maxX, int maxY, int maxZ,
+                                 java.util.function.Consumer<CubicChunk> action) {
+            long min = CubeKeys.pack(minX, minY, minZ);
+            long max = CubeKeys.pack(maxX, maxY, maxZ);
+            
+            Map.Entry<Long, CubicChunk> entry = zOrder.ceilingEntry(min);
+            while (entry != null && entry.getKey() <= max) {
+                long key = entry.getKey();
+                if (CubeKeys.inBox(key, min, max)) {
+                    action.accept(entry.getValue());
+                    entry = zOrder.higherEntry(key);
+                } else {
+                    entry = zOrder.ceilingEntry(CubeKeys.nextInBox(key, min, max));
+                }
+            }
+        }
+        
+        public void forEachNear(int x, int y, int z, int radius,
+                                java.util.function.Consumer<CubicChunk> action) {
+            forEachInBox(Math.max(x - radius, CubeKeys.MIN_COORD), Math.max(y - radius, CubeKeys.MIN_COORD),
+                Math.max(z - radius, CubeKeys.MIN_COORD), Math.min(x + radius, CubeKeys.MAX_COORD),
+                Math.min(y + radius, CubeKeys.MAX_COORD), Math.min(z + radius, CubeKeys.MAX_COORD), action);
+        }
+        
+        public WorldCursor cursor() {
+            return new WorldCursor(this);
+        }
+        
+        /** Number of 32x32x32 regions holding at least one cube. */
+        public int countRegions() {
+            int regions = 0;
+            long last = -1;
+            for (Long key : zOrder.keySet()) {
+                long region = CubeKeys.region(key);
+                if (region != last) {
+                    regions++;
+                    last = region;
+                }
+            }
+            return regions;
+        }
+    }
+    
+    /**
+     * Reads and writes blocks by world coordinates across cube boundaries.
+     * Stepping into an adjacent cube follows the current cube's neighbour
+     * links, so sweeps through loaded terrain (meshing, lighting, carving)
+     * only hit the index when they jump more than one cube or leave loaded
+     * terrain. Not thread-safe: use one cursor per thread. Unloaded blocks
+     * read as 0 and ignore writes.
+     */
+    public static class WorldCursor {
+        private final CubeIndex index;
+        private CubicChunk cube;
+        private int cubeX, cubeY, cubeZ;
+        private int blockX, blockY, blockZ;
+        private boolean positioned;
+        
+        public WorldCursor(CubeIndex index) {
+            this.index = index;
+        }
+        
+        public WorldCursor moveTo(int x, int y, int z) {
+            blockX = x;
+            blockY = y;
+            blockZ = z;
+            
+            int chunkX = x >> 4;
+            int chunkY = y >> 4;
+            int chunkZ = z >> 4;
+            if (!positioned || chunkX != cubeX || chunkY != cubeY || chunkZ != cubeZ ||
+                (cube != null && !cube.isLinked())) {
+                enterCube(chunkX, chunkY, chunkZ);
+            }
+            return this;
+        }
+        
+        public WorldCursor move(int dx, int dy, int dz) {
+            return moveTo(blockX + dx, blockY + dy, blockZ + dz);
+        }
+        
+        private void enterCube(int chunkX, int chunkY, int chunkZ) {
+            int dx = chunkX - cubeX;
+            int dy = chunkY - cubeY;
+            int dz = chunkZ - cubeZ;
+            
+            if (positioned && cube != null && cube.isLinked() &&
+                dx >= -1 && dx <= 1 && dy >= -1 && dy <= 1 && dz >= -1 && dz <= 1) {
+                cube = cube.getNeighbour(dx, dy, dz);
+            } else {
+                cube = CubeKeys.inRange(chunkX, chunkY, chunkZ) ?
+                    index.get(CubeKeys.pack(chunkX, chunkY, chunkZ)) : null;
+            }
+            
+            cubeX = chunkX;
+            cubeY = chunkY;
+            cubeZ = chunkZ;
+            positioned = true;
+        }
+        
+        public boolean isLoaded() {
+            return cube != null;
+        }
+        
+        /** The cube under the cursor, or null if it is not loaded. */
+        public CubicChunk getCube() {
+            return cube;
+        }
+        
+        public int getX() {
+            return blockX;
+        }
+        
+        public int getY() {
+            return blockY;
+        }
+        
+        public int getZ() {
+            return blockZ;
+        }
+        
+        public byte getBlockID() {
+            return cube != null ? cube.getBlockID(blockX & 15, blockY & 15, blockZ & 15) : 0;
+        }
+        
+        public boolean setBlockID(byte blockID) {
+            if (cube == null) return false;
+            cube.setBlockID(blockX & 15, blockY & 15, blockZ & 15, blockID);
+            return true;
+        }
+        
+        public byte getMetadata() {
+            return cube != null ? cube.getMetadata(blockX & 15, blockY & 15, blockZ & 15) : 0;
+        }
+        
+        public boolean setMetadata(byte meta) {
+            if (cube == null) return false;
+            cube.setMetadata(blockX & 15, blockY & 15, blockZ & 15, meta);
+            return true;
+        }
+        
+        public byte getLight(boolean skyLight) {
+            return cube != null ? cube.getLight(blockX & 15, blockY & 15, blockZ & 15, skyLight) : 0;
+        }
+        
+        public boolean setLight(byte blockLight, byte skyLight) {
+            if (cube == null) return false;
+            cube.setLight(blockX & 15, blockY & 15, blockZ & 15, blockLight, skyLight);
+            return true;
+        }
+    }
+    
+    /**
+     * Work that must run on the server thread, drained from the server tick
+     * within {@link #PUBLISH_BUDGET_MICROS}. Whatever does not fit stays
+     * queued, in order, for the next tick. Tasks are never interrupted, so
+     * the last task of a tick can run past the budget; such ticks are counted
+     * as {@link MetricCounter#TICK_OVERRUNS}.
+     */
+    public static class MainThreadExecutor implements java.util.concurrent.Executor {
+        private final Queue<Runnable> tasks = new java.util.concurrent.ConcurrentLinkedQueue<>();
+        private final Queue<Runnable> nextTick = new java.util.concurrent.ConcurrentLinkedQueue<>();
+        
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+        
+        /** Queues a task that must not run before the next server tick. */
+        public void executeNextTick(Runnable task) {
+            nextTick.add(task);
+        }
+        
+        public int getBacklog() {
+            return tasks.size() + nextTick.size();
+        }
+        
+        /** Runs queued tasks until none are left or {@code budgetNanos} has passed. */
+        public int runFor(long budgetNanos) {
+            long start = System.nanoTime();
+            int ran = 0;
+            
+            Runnable deferred;
+            while ((deferred = nextTick.poll()) != null) {
+                tasks.add(deferred);
+            }
+            Runnable task;
+            while (System.nanoTime() - start < budgetNanos && (task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                ran++;
+            }
+            
+            if (System.nanoTime() - start > budgetNanos) {
+                METRICS.increment(MetricCounter.TICK_OVERRUNS);
+            }
+            return ran;
+        }
+    }
+    
+    /**
+     * Posted on the server thread when a cube joins or leaves its dimension's
+     * index. CubicChunk keeps no entities or tile entities itself; mods that
+     * do attach and detach them here.
+     */
+    public static class CubeEvent extends net.minecraftforge.fml.common.eventhandler.Event {
+        public final int dimension;
+        public final CubicChunk cube;
+        
+        public CubeEvent(int dimension, CubicChunk cube) {
+            this.dimension = dimension;
+            this.cube = cube;
+        }
+        
+        /** The cube is indexed and linked to its loaded neighbours. */
+        public static class Load extends CubeEvent {
+            public Load(int dimension, CubicChunk cube) {
+                super(dimension, cube);
+            }
+        }
+        
+        /** The cube has already left the index and been queued for saving. */
+        public static class Unload extends CubeEvent {
+            public Unload(int dimension, CubicChunk cube) {
+                super(dimension, cube);
+            }
+        }
+    }
+    
+    // Chunk Loading Manager
+    public class ChunkLoadingManager implements Runnable {
+        private static final int EXECUTOR_THREADS = 4;
+        private static final long SAVE_INTERVAL_MS = 1000;
+        
+        // Prefetch along each fast player's extrapolated path
+        private static final int PREFETCH_INTERVAL_TICKS = 5;
+        private static final int PREFETCH_LOOKAHEAD_TICKS = 60;
+        private static final double PREFETCH_MIN_SPEED = 0.4; // Blocks per tick, above sprinting
+        private static final int PREFETCH_RADIUS = 1;
+        private static final int MAX_SPECULATIVE_CUBES = 256; // Per dimension
+        private static final long PREFETCH_TIMEOUT_MS = 10000;
+        
+        private final Map<Integer, DimensionPartition> partitions = new ConcurrentHashMap<>();
+        private Thread managerThread;
+        private volatile boolean running = true;
+        private volatile int busyPartitions = 1;
+        private final java.util.concurrent.atomic.AtomicBoolean reloading =
+            new java.util.concurrent.atomic.AtomicBoolean();
+        private long lastSave;
+        
+        public void start() {
+            managerThread = new Thread(this, "CubicChunk-Loader");
+            managerThread.setDaemon(true);
+            managerThread.start();
+        }
+        
+        public void stop() {
+            running = false;
+            if (managerThread != null) {
+                managerThread.interrupt();
+            }
+        }
+        
+        public DimensionPartition partition(int dimension) {
+            return partitions.computeIfAbsent(dimension, DimensionPartition::new);
+        }
+        
+        public Collection<DimensionPartition> getPartitions() {
+            return partitions.values();
+        }
+        
+        public int getLoadedCount() {
+            int count = 0;
+            for (DimensionPartition partition : partitions.values()) {
+                count += partition.loadedChunks.size();
+            }
+            return count;
+        }
+        
+        public void requestChunkLoad(int dimension, int x, int y, int z) {
+            partition(dimension).chunksToLoad.add(getChunkKey(x, y, z));
+        }
+        
+        public void requestChunkUnload(int dimension, int x, int y, int z) {
+            partition(dimension).chunksToUnload.add(getChunkKey(x, y, z));
+        }
+        
+        public void updatePlayerView(EntityPlayer player, int radius) {
+            BlockPos pos = player.getPosition();
+            DimensionPartition partition = partition(player.dimension);
+            partition.updateView(player.getUniqueID(),
+                pos.getX() >> 4, pos.getY() >> 4, pos.getZ() >> 4, radius);
+            
+            if (player.ticksExisted % PREFETCH_INTERVAL_TICKS == 0) {
+                prefetchPath(partition, player);
+            }
+        }
+        
+        /**
+         * Extrapolates where a fast-moving player will be over the next
+         * {@link #PREFETCH_LOOKAHEAD_TICKS} ticks and queues the cubes around
+         * that path, nearest first, ahead of ordinary loads.
+         */
+        private void prefetchPath(DimensionPartition partition, EntityPlayer player) {
+            // Actual displacement last tick; motion covers the first tick after a teleport
+            double vx = player.posX - player.lastTickPosX;
+            double vy = player.posY - player.lastTickPosY;
+            double vz = player.posZ - player.lastTickPosZ;
+            if (vx == 0 && vy == 0 && vz == 0) {
+                vx = player.motionX;
+                vy = player.motionY;
+                vz = player.motionZ;
+            }
+            
+            double speed = Math.sqrt(vx * vx + vy * vy + vz * vz);
+            if (speed < PREFETCH_MIN_SPEED) return;
+            
+            // One sample per cube travelled
+            double ticksPerCube = 16 / speed;
+            int lastX = Integer.MIN_VALUE, lastY = 0, lastZ = 0;
+            for (double t = ticksPerCube; t <= PREFETCH_LOOKAHEAD_TICKS; t += ticksPerCube) {
+                int chunkX = (int) Math.floor(player.posX + vx * t) >> 4;
+                int chunkY = (int) Math.floor(player.posY + vy * t) >> 4;
+                int chunkZ = (int) Math.floor(player.posZ + vz * t) >> 4;
+                if (chunkX == lastX && chunkY == lastY && chunkZ == lastZ) continue;
+                
+                if (!partition.prefetchAround(chunkX, chunkY, chunkZ)) return; // Speculation cap reached
+                lastX = chunkX;
+                lastY = chunkY;
+                lastZ = chunkZ;
+            }
+        }
+        
+        /**
+         * Saves every dirty cube, rebuilds each dimension's index from the
+         * cubes already in memory and lets players re-warm their views, all
+         * without holding up the tick: saving runs on the chunk executor and
+         * the rest as small server-thread tasks.
+         *
+         * @param done receives a summary once every dimension has finished
+         * @return false if a reload is already running
+         */
+        public boolean reload(java.util.function.Consumer<String> done) {
+            if (!reloading.compareAndSet(false, true)) return false;
+            
+            List<DimensionPartition> targets = new ArrayList<>(partitions.values());
+            java.util.concurrent.atomic.AtomicInteger remaining =
+                new java.util.concurrent.atomic.AtomicInteger(targets.size());
+            java.util.concurrent.atomic.AtomicInteger flushed = new java.util.concurrent.atomic.AtomicInteger();
+            java.util.concurrent.atomic.AtomicInteger kept = new java.util.concurrent.atomic.AtomicInteger();
+            java.util.concurrent.atomic.AtomicInteger unloaded = new java.util.concurrent.atomic.AtomicInteger();
+            Runnable finish = () -> {
+                reloading.set(false);
+                done.accept(String.format("Reloaded %d dimensions: saved %d dirty cubes, kept %d warm, unloading %d",
+                    targets.size(), flushed.get(), kept.get(), unloaded.get()));
+            };
+            if (targets.isEmpty()) {
+                finish.run();
+                return true;
+            }
+            
+            for (DimensionPartition partition : targets) {
+                chunkExecutor.execute(() -> {
+                    flushed.addAndGet(partition.flushDirty());
+                    mainThread.execute(() -> {
+                        kept.addAndGet(partition.resetViews());
+                        mainThread.executeNextTick(() -> {
+                            unloaded.addAndGet(partition.unloadUnviewed());
+                            if (remaining.decrementAndGet() == 0) {
+                                finish.run();
+                            }
+                        });
+                    });
+                });
+            }
+            return true;
+        }
+        
+        /** Drops a player's view in every dimension, e.g. on logout. */
+        public void releasePlayer(UUID player) {
+            for (DimensionPartition partition : partitions.values()) {
+                partition.releaseViewer(player);
+            }
+        }
+        
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    int busy = 0;
+                    for (DimensionPartition partition : partitions.values()) {
+                        if (partition.hasWork()) busy++;
+                    }
+                    busyPartitions = Math.max(1, busy);
+                    
+                    boolean saveDue = System.currentTimeMillis() - lastSave > SAVE_INTERVAL_MS;
+                    for (DimensionPartition partition : partitions.values()) {
+                        // Process unload requests
+                        partition.processUnloads();
+                        
+                        // Hand load requests and background work to the executor
+                        partition.dispatch();
+                        
+                        // Save dirty chunks periodically
+                        if (saveDue) {
+                            partition.saveDirtyChunks();
+                        }
+                    }
+                    if (saveDue) {
+                        lastSave = System.currentTimeMillis();
+                    }
+                    
+                    Thread.sleep(50); // 20Hz
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        
+        private CubicChunk generateChunk(World world, int x, int y, int z) {
+            long start = System.nanoTime();
+            CubicChunk chunk = new CubicChunk(world, x, y, z);
+            
+            // Same seed, same cube: whichever thread and in whatever order
+            generationPipeline.generate(chunk, world != null ? world.getSeed() : 0L);
+            chunk.markPristine();
+            chunk.compact();
+            
+            METRICS.increment(MetricCounter.GENERATED);
+            METRICS.recordNanos(MetricTimer.GENERATE, System.nanoTime() - start);
+            return chunk;
+        }
+        
+        private long getChunkKey(int x, int y, int z) {
+            return CubeKeys.pack(x, y, z);
+        }
+        
+        /**
+         * Everything the loader tracks for one dimension: its resident cubes,
+         * its own load and unload queues, and a fair share of the chunk
+         * executor. Busy partitions split the executor threads evenly, so a
+         * pregeneration job in one dimension cannot starve player loading in
+         * another; within a partition, player loads always go first.
+         */
+        public class DimensionPartition {
+            public final int dimension;
+            final CubeIndex loadedChunks = new CubeIndex();
+            final Set<Long> chunksToLoad = ConcurrentHashMap.newKeySet();
+            final Set<Long> chunksToUnload = ConcurrentHashMap.newKeySet();
+            private final Set<Long> loading = ConcurrentHashMap.newKeySet();
+            private final Queue<Long> priorityLoads = new java.util.concurrent.ConcurrentLinkedQueue<>();
+            private final Set<Long> prioritized = ConcurrentHashMap.newKeySet();
+            // Prefetched cubes no player has viewed yet, with the time they count as a miss
+            private final Map<Long, Long> speculative = new ConcurrentHashMap<>();
+            private final Queue<Runnable> backgroundTasks = new java.util.concurrent.ConcurrentLinkedQueue<>();
+            private final java.util.concurrent.atomic.AtomicInteger workers =
+                new java.util.concurrent.atomic.AtomicInteger();
+            private final Map<UUID, Set<Long>> viewers = new HashMap<>();
+            // Set on the server thread by world load and unload events
+            private volatile World world;
+            
+            DimensionPartition(int dimension) {
+                this.dimension = dimension;
+            }
+            
+            private long pristineStamp(World world) {
+                return generationPipeline.fingerprint(world != null ? world.getSeed() : 0L);
+            }
+            
+            /**
+             * The dimension's server world, or null while it is not loaded. Safe
+             * from loader and worker threads, which must not ask the server for it.
+             */
+            public World world() {
+                return world;
+            }
+            
+            void setWorld(World world) {
+                this.world = world;
+            }
+            
+            public int getLoadQueueSize() {
+                return chunksToLoad.size();
+            }
+            
+            public int getUnloadQueueSize() {
+                return chunksToUnload.size();
+            }
+            
+            public int getBackgroundQueueSize() {
+                return backgroundTasks.size();
+            }
+            
+            /** Queues work that should only use this dimension's executor share. */
+            public void submitBackground(Runnable task) {
+                backgroundTasks.add(task);
+            }
+            
+            void updateView(UUID viewer, int chunkX, int chunkY, int chunkZ, int radius) {
+                Set<Long> neededChunks = new HashSet<>();
+                
+                // Calculate chunks within radius (including vertical)
+                for (int dx = -radius; dx <= radius; dx++) {
+                    for (int dy = -radius; dy <= radius; dy++) {
+                        for (int dz = -radius; dz <= radius; dz++) {
+                            if (!CubeKeys.inRange(chunkX + dx, chunkY + dy, chunkZ + dz)) continue;
+                            long key = getChunkKey(chunkX + dx, chunkY + dy, chunkZ + dz);
+                            neededChunks.add(key);
+                        }
+                    }
+                }
+                
+                synchronized (viewers) {
+                    Set<Long> previous = viewers.put(viewer, neededChunks);
+                    
+                    // Unload chunks outside radius that nobody else is viewing
+                    if (previous != null) {
+                        for (Long chunkKey : previous) {
+                            if (!neededChunks.contains(chunkKey) && !isViewed(chunkKey)) {
+                                chunksToUnload.add(chunkKey);
+                            }
+                        }
+                    }
+                    
+                    // Load new chunks
+                    for (Long chunkKey : neededChunks) {
+                        if (previous == null || !previous.contains(chunkKey)) {
+                            if (speculative.remove(chunkKey) != null) {
+                                METRICS.increment(MetricCounter.PREFETCH_HITS);
+                            }
+                            chunksToUnload.remove(chunkKey);
+                            chunksToLoad.add(chunkKey);
+                        }
+                    }
+                    
+                    // A fresh view (login, dimension change, reload) warms up nearest first
+                    if (previous == null) {
+                        prioritizeNearest(neededChunks, chunkX, chunkY, chunkZ);
+                    }
+                }
+            }
+            
+            private void prioritizeNearest(Set<Long> chunkKeys, int chunkX, int chunkY, int chunkZ) {
+                List<Long> missing = new ArrayList<>();
+                for (Long chunkKey : chunkKeys) {
+                    if (!loadedChunks.contains(chunkKey)) {
+                        missing.add(chunkKey);
+                    }
+                }
+                missing.sort(Comparator.comparingLong(chunkKey -> {
+                    long dx = CubeKeys.x(chunkKey) - chunkX;
+                    long dy = CubeKeys.y(chunkKey) - chunkY;
+                    long dz = CubeKeys.z(chunkKey) - chunkZ;
+                    return dx * dx + dy * dy + dz * dz;
+                }));
+                for (Long chunkKey : missing) {
+                    if (prioritized.add(chunkKey)) {
+                        priorityLoads.add(chunkKey);
+                    }
+                }
+            }
+            
+            /**
+             * First reload step, off the server thread: pushes every dirty cube
+             * through the normal save path.
+             *
+             * @return the number of cubes saved
+             */
+            int flushDirty() {
+                int flushed = 0;
+                for (CubicChunk chunk : loadedChunks.values()) {
+                    if (chunk.isDirty()) {
+                        // Clean first, so an edit made while saving marks it dirty again
+                        chunk.markClean();
+                        ChunkStorageSystem.saveChunk(chunk);
+                        flushed++;
+                    }
+                }
+                return flushed;
+            }
+            
+            /**
+             * Second reload step, on the server thread: rebuilds the index and
+             * neighbour links from the cubes already in memory and drops all
+             * queued and per-player state. Each player's next view update then
+             * re-warms their view nearest first.
+             *
+             * @return the number of cubes kept
+             */
+            int resetViews() {
+                int kept = loadedChunks.rebuild();
+                synchronized (viewers) {
+                    viewers.clear();
+                    chunksToLoad.clear();
+                    chunksToUnload.clear();
+                    priorityLoads.clear();
+                    prioritized.clear();
+                    speculative.clear();
+                }
+                return kept;
+            }
+            
+            /**
+             * Last reload step, a tick after {@link #resetViews}: once players
+             * have re-registered their views, unloads the cubes none of them
+             * needs any more.
+             *
+             * @return the number of cubes queued for unloading
+             */
+            int unloadUnviewed() {
+                int unloaded = 0;
+                synchronized (viewers) {
+                    for (CubicChunk chunk : loadedChunks.values()) {
+                        long chunkKey = chunk.getChunkKey();
+                        if (!isViewed(chunkKey) && chunksToUnload.add(chunkKey)) {
+                            unloaded++;
+                        }
+                    }
+                }
+                return unloaded;
+            }
+            
+            void releaseViewer(UUID viewer) {
+                synchronized (viewers) {
+                    Set<Long> previous = viewers.remove(viewer);
+                    if (previous == null) return;
+                    
+                    for (Long chunkKey : previous) {
+                        if (!isViewed(chunkKey)) {
+                            chunksToUnload.add(chunkKey);
+                        }
+                    }
+                }
+            }
+            
+            /**
+             * Moves the cubes around a predicted position to the front of the
+             * load queue. Cubes no player views yet are speculative and
+             * capped at {@link #MAX_SPECULATIVE_CUBES}.
+             *
+             * @return false once the cap is reached
+             */
+            boolean prefetchAround(int chunkX, int chunkY, int chunkZ) {
+                long deadline = System.currentTimeMillis() + PREFETCH_TIMEOUT_MS;
+                synchronized (viewers) {
+                    for (int dx = -PREFETCH_RADIUS; dx <= PREFETCH_RADIUS; dx++) {
+                        for (int dy = -PREFETCH_RADIUS; dy <= PREFETCH_RADIUS; dy++) {
+                            for (int dz = -PREFETCH_RADIUS; dz <= PREFETCH_RADIUS; dz++) {
+                                if (!CubeKeys.inRange(chunkX + dx, chunkY + dy, chunkZ + dz)) continue;
+                                long chunkKey = getChunkKey(chunkX + dx, chunkY + dy, chunkZ + dz);
+                                if (loadedChunks.contains(chunkKey) || loading.contains(chunkKey)) continue;
+                                
+                                if (!isViewed(chunkKey) && !speculative.containsKey(chunkKey)) {
+                                    if (speculative.size() >= MAX_SPECULATIVE_CUBES) return false;
+                                    speculative.put(chunkKey, deadline);
+                                    METRICS.increment(MetricCounter.PREFETCHED);
+                                }
+                                chunksToUnload.remove(chunkKey);
+                                chunksToLoad.add(chunkKey);
+                                if (prioritized.add(chunkKey)) {
+                                    priorityLoads.add(chunkKey);
+                                }
+                            }
+                        }
+                    }
+                }
+                return true;
+            }
+            
+            /** Unloads speculative cubes nobody came to view in time. */
+            private void expireSpeculative() {
+                if (speculative.isEmpty()) return;
+                
+                long now = System.currentTimeMillis();
+                synchronized (viewers) {
+                    Iterator<Map.Entry<Long, Long>> it = speculative.entrySet().iterator();
+                    while (it.hasNext()) {
+                        Map.Entry<Long, Long> entry = it.next();
+                        if (entry.getValue() > now) continue;
+                        
+                        it.remove();
+                        METRICS.increment(MetricCounter.PREFETCH_MISSES);
+                        if (!isViewed(entry.getKey())) {
+                            chunksToUnload.add(entry.getKey());
+                        }
+                    }
+                }
+            }
+            
+            private boolean isViewed(long chunkKey) {
+                for (Set<Long> view : viewers.values()) {
+                    if (view.contains(chunkKey)) return true;
+                }
+                return false;
+            }
+            
+            boolean hasWork() {
+                return !chunksToLoad.isEmpty() || !backgroundTasks.isEmpty() || workers.get() > 0;
+            }
+            
+            private int executorShare() {
+                return Math.max(1, EXECUTOR_THREADS / busyPartitions);
+            }
+            
+            void processUnloads() {
+                expireSpeculative();
+                
+                Iterator<Long> it = chunksToUnload.iterator();
+                while (it.hasNext()) {
+                    long chunkKey = it.next();
+                    chunksToLoad.remove(chunkKey);
+                    
+                    // A cube being loaded right now is unloaded on the next pass; claiming
+                    // the key keeps workers off it until the unload has finished
+                    if (!loading.add(chunkKey)) continue;
+                    
+                    it.remove();
+                    unloadChunk(chunkKey);
+                }
+            }
+            
+            /** Tops up this partition's workers to its current executor share. */
+            void dispatch() {
+                while (hasQueuedWork()) {
+                    int current = workers.get();
+                    if (current >= executorShare()) return;
+                    if (workers.compareAndSet(current, current + 1)) {
+                        chunkExecutor.execute(this::work);
+                    }
+                }
+            }
+            
+            private boolean hasQueuedWork() {
+                return !chunksToLoad.isEmpty() || !backgroundTasks.isEmpty();
+            }
+            
+            private void work() {
+                try {
+                    Runnable task;
+                    while (workers.get() <= executorShare() && (task = nextTask()) != null) {
+                        try {
+                            task.run();
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        }
+                    }
+                } finally {
+                    workers.decrementAndGet();
+                }
+            }
+            
+            private Runnable nextTask() {
+                // Cubes on a predicted path first, then ordinary loads, then background work
+                Long priority;
+                while ((priority = priorityLoads.poll()) != null) {
+                    prioritized.remove(priority);
+                    Runnable task = claim(priority);
+                    if (task != null) return task;
+                }
+                
+                Iterator<Long> it = chunksToLoad.iterator();
+                while (it.hasNext()) {
+                    Runnable task = claim(it.next());
+                    if (task != null) return task;
+                }
+                return backgroundTasks.poll();
+            }
+            
+            private Runnable claim(long chunkKey) {
+                // Mark as loading before claiming so processUnloads never misses it;
+                // a key already marked belongs to another worker or awaits publication
+                if (!loading.add(chunkKey)) return null;
+                if (!chunksToLoad.remove(chunkKey)) {
+                    loading.remove(chunkKey);
+                    return null;
+                }
+                
+                return () -> {
+                    boolean published = false;
+                    try {
+                        published = loadChunk(chunkKey);
+                    } finally {
+                        // A published cube stays "loading" until the server thread indexes it
+                        if (!published) {
+                            loading.remove(chunkKey);
+                        }
+                    }
+                };
+            }
+            
+            /** @return true if the cube was handed to the server thread for publication */
+            private boolean loadChunk(long chunkKey) {
+                METRICS.increment(MetricCounter.LOAD_REQUESTS);
+                if (loadedChunks.contains(chunkKey)) {
+                    METRICS.increment(MetricCounter.ALREADY_LOADED);
+                    return false; // Already loaded
+                }
+                
+                int x = CubeKeys.x(chunkKey);
+                int y = CubeKeys.y(chunkKey);
+                int z = CubeKeys.z(chunkKey);
+                
+                // Unmodified cubes come from the pristine cache, others from storage or the generator
+                World world = world();
+                if (world == null) return false; // Dimension unloaded since the request
+                CubicChunk chunk = PRISTINE_CUBES.load(dimension, world, x, y, z, pristineStamp(world));
+                if (chunk != null) {
+                    METRICS.increment(MetricCounter.PRISTINE_HITS);
+                } else if ((chunk = ChunkStorageSystem.loadChunk(world, x, y, z)) != null) {
+                    METRICS.increment(MetricCounter.DISK_HITS);
+                } else {
+                    chunk = generateChunk(world, x, y, z);
+                }
+                
+                if (chunk == null) return false;
+                
+                CubicChunk loaded = chunk;
+                mainThread.execute(() -> publish(chunkKey, loaded));
+                return true;
+            }
+            
+            /**
+             * Runs on the server thread: indexes the cube, which links it to its
+             * neighbours, and lets other mods attach entities or tile entities.
+             */
+            private void publish(long chunkKey, CubicChunk chunk) {
+                try {
+                    loadedChunks.put(chunkKey, chunk);
+                    METRICS.increment(MetricCounter.PUBLISHED);
+                    MinecraftForge.EVENT_BUS.post(new CubeEvent.Load(dimension, chunk));
+                } finally {
+                    loading.remove(chunkKey);
+                }
+            }
+            
+            /**
+             * Generates a cube and writes it straight to storage without adding it
+             * to {@code loadedChunks}. Used by pregeneration so that large jobs do
+             * not keep every generated cube resident.
+             *
+             * @return false if the cube was already loaded or already on disk
+             */
+            public boolean generateToDisk(int x, int y, int z) {
+                World world = world();
+                if (world == null || loadedChunks.contains(getChunkKey(x, y, z)) ||
+                    ChunkStorageSystem.exists(world, x, y, z)) {
+                    return false;
+                }
+                
+                CubicChunk chunk = generateChunk(world, x, y, z);
+                ChunkStorageSystem.saveChunk(chunk);
+                chunk.release();
+                return true;
+            }
+            
+            /**
+             * Unloads a cube whose key the caller has marked as loading. It leaves
+             * the index on the server thread, in order with {@link #publish}, and is
+             * saved on this partition's executor share afterwards.
+             */
+            private void unloadChunk(long chunkKey) {
+                mainThread.execute(() -> {
+                    CubicChunk chunk = loadedChunks.remove(chunkKey);
+                    if (chunk == null) {
+                        loading.remove(chunkKey);
+                        return;
+                    }
+                    MinecraftForge.EVENT_BUS.post(new CubeEvent.Unload(dimension, chunk));
+                    submitBackground(() -> retire(chunkKey, chunk));
+                });
+            }
+            
+            private void retire(long chunkKey, CubicChunk chunk) {
+                try {
+                    if (chunk.isDirty()) {
+                        ChunkStorageSystem.saveChunk(chunk);
+                    } else if (chunk.isPristine()) {
+                        PRISTINE_CUBES.put(dimension, chunk, pristineStamp(chunk.world));
+                    }
+                    chunk.release();
+                } finally {
+                    // Reloading before the save lands would read the stale copy
+                    loading.remove(chunkKey);
+                }
+            }
+            
+            void saveDirtyChunks() {
+                // Z-order walk, so consecutive journal records are neighbouring cubes
+                for (CubicChunk chunk : loadedChunks.values()) {
+                    if (chunk.isDirty() && 
+                        System.currentTimeMillis() - chunk.getLastAccessed() > 30000) {
+                        ChunkStorageSystem.saveChunk(chunk);
+                        chunk.markClean();
+                    }
+                }
+            }
+        }
+    }
+    
+    // Generation Pipeline
+    public enum GenerationStep {
+        TERRAIN, SURFACE, CARVERS, ORES, FEATURES
+    }
+    
+    /**
+     * One generator within a {@link GenerationStep}. A generator only writes
+     * into the cube it is given; whatever it needs from around that cube comes
+     * from the context, either as the seed another cube or column would use
+     * (to replay what would be placed there) or as an immutable heightmap
+     * within {@link #radius()} cubes.
+     */
+    public interface CubeGenerator {
+        /** How many cubes around its own one this generator reads. */
+        int radius();
+        
+        void generate(CubicChunk cube, GenerationContext context);
+    }
+    
+    /**
+     * Runs the generators of every {@link GenerationStep} in order on its own
+     * fork-join pool. Each generator starts once the cube's previous one has
+     * finished and the heightmaps of all columns within its radius are ready;
+     * those are computed in parallel and shared between neighbouring cubes.
+     * Stages chain through futures instead of blocking pool threads, so cubes
+     * waiting on each other's columns cannot deadlock the pool.
+     *
+     * Every random choice is seeded from the world seed, the generator and
+     * the cube or column it concerns, so a cube comes out identical on any
+     * thread and in any order, and can be regenerated at any time.
+     */
+    public static class GenerationPipeline {
+        /** Bump whenever the output for a given seed changes. */
+        public static final int GENERATOR_VERSION = 3;
+        private static final int HEIGHTMAP_CACHE_COLUMNS = 4096;
+        private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+        
+        private final Map<GenerationStep, List<CubeGenerator>> generators = new EnumMap<>(GenerationStep.class);
+        private final java.util.concurrent.ForkJoinPool pool;
+        private final OreGenerator oreGenerator = new OreGenerator();
+        private final Map<Long, CompletableFuture<int[]>> heightmaps =
+            new LinkedHashMap<Long, CompletableFuture<int[]>>(256, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, CompletableFuture<int[]>> eldest) {
+                    return size() > HEIGHTMAP_CACHE_COLUMNS;
+                }
+            };
+        private long heightmapSeed;
+        
+        public GenerationPipeline() {
+            for (GenerationStep step : GenerationStep.values()) {
+                generators.put(step, new java.util.concurrent.CopyOnWriteArrayList<>());
+            }
+            
+            pool = new java.util.concurrent.ForkJoinPool(Runtime.getRuntime().availableProcessors(), p -> {
+                java.util.concurrent.ForkJoinWorkerThread thread =
+                    java.util.concurrent.ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+                thread.setName("CubicChunk-Gen-" + thread.getPoolIndex());
+                return thread;
+            }, null, true);
+            
+            register(GenerationStep.TERRAIN, new TerrainGenerator());
+            register(GenerationStep.SURFACE, new SurfaceGenerator());
+            register(GenerationStep.CARVERS, new NoiseCaveCarver());
+            register(GenerationStep.ORES, oreGenerator);
+            register(GenerationStep.FEATURES, new TreeFeature());
+        }
+        
+        /**
+         * Identifies everything generator output depends on: the generator
+         * version, the seed, the ore veins and which generators are registered.
+         * Cached output is only valid under the same fingerprint.
+         */
+        public long fingerprint(long worldSeed) {
+            int registered = 1;
+            for (GenerationStep step : GenerationStep.values()) {
+                for (CubeGenerator generator : generators.get(step)) {
+                    registered = registered * 31 + generator.getClass().getName().hashCode();
+                }
+            }
+            return seed(worldSeed, -2, GENERATOR_VERSION, oreGenerator.getOres().hashCode(), registered);
+        }
+        
+        /** Replaces the ore veins placed by the built-in ore generator. */
+        public void setOres(List<OreConfig> ores) {
+            oreGenerator.setOres(ores);
+        }
+        
+        /** Adds a generator after those already registered for its step. */
+        public void register(GenerationStep step, CubeGenerator generator) {
+            generators.get(step).add(generator);
+        }
+        
+        public CubicChunk generate(CubicChunk cube, long worldSeed) {
+            return generateAsync(cube, worldSeed).join();
+        }
+        
+        public CompletableFuture<CubicChunk> generateAsync(CubicChunk cube, long worldSeed) {
+            CompletableFuture<CubicChunk> stages = CompletableFuture.completedFuture(cube);
+            for (GenerationStep step : GenerationStep.values()) {
+                int index = 0;
+                for (CubeGenerator generator : generators.get(step)) {
+                    GenerationContext context = new GenerationContext(this, worldSeed, cube,
+                        step.ordinal() * 256L + index++ * 2L, generator.radius());
+                    stages = stages.thenCombine(context.dependencies(), (c, ready) -> c)
+                        .thenApplyAsync(c -> {
+                            generator.generate(c, context);
+                            return c;
+                        }, pool);
+                }
+            }
+            return stages;
+        }
+        
+        CompletableFuture<int[]> heightmap(int chunkX, int chunkZ, long worldSeed) {
+            long key = ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+            synchronized (heightmaps) {
+                if (worldSeed != heightmapSeed) {
+                    heightmaps.clear();
+                    heightmapSeed = worldSeed;
+                }
+                CompletableFuture<int[]> future = heightmaps.get(key);
+                if (future == null) {
+                    future = CompletableFuture.supplyAsync(() -> computeHeightmap(chunkX, chunkZ, worldSeed), pool);
+                    heightmaps.put(key, future);
+                }
+                return future;
+            }
+        }
+        
+        private static int[] computeHeightmap(int chunkX, int chunkZ, long worldSeed) {
+            double phaseX = unit(seed(worldSeed, -1, 0, 0, 0)) * 2 * Math.PI;
+            double phaseZ = unit(seed(worldSeed, -1, 1, 0, 0)) * 2 * Math.PI;
+            
+            int[] heights = new int[256];
+            for (int localZ = 0; localZ < 16; localZ++) {
+                for (int localX = 0; localX < 16; localX++) {
+                    int worldX = (chunkX << 4) + localX;
+                    int worldZ = (chunkZ << 4) + localZ;
+                    heights[localX + localZ * 16] = 64 + (int)(Math.sin(worldX * 0.01 + phaseX) * 10) +
+                                                         (int)(Math.cos(worldZ * 0.01 + phaseZ) * 10);
+                }
+            }
+            return heights;
+        }
+        
+        static long seed(long worldSeed, long salt, int x, int y, int z) {
+            long h = scramble(worldSeed ^ (salt * GOLDEN_GAMMA));
+            h = scramble(h + x);
+            h = scramble(h + y);
+            return scramble(h + z);
+        }
+        
+        // SplitMix64 finaliser: a bijection, so distinct inputs never share a seed
+        private static long scramble(long z) {
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+        
+        private static double unit(long bits) {
+            return (bits >>> 11) * 0x1.0p-53;
+        }
+        
+        static double perlin3D(double x, double y, double z) {
+            // Simplified 3D Perlin noise
+            return (Math.sin(x) * Math.cos(y) * Math.sin(z) + 1) / 2;
+        }
+    }
+    
+    /**
+     * What one generator may see while filling one cube. Reads outside the
+     * declared radius throw, since the pipeline has not waited for them and
+     * they would make the output depend on generation order.
+     */
+    public static final class GenerationContext {
+        public final long worldSeed;
+        private final GenerationPipeline pipeline;
+        private final CubicChunk cube;
+        private final int dimension;
+        private final long salt;
+        private final int radius;
+        private final double noiseX, noiseY, noiseZ;
+        
+        GenerationContext(GenerationPipeline pipeline, long worldSeed, CubicChunk cube, long salt, int radius) {
+            this.pipeline = pipeline;
+            this.worldSeed = worldSeed;
+            this.cube = cube;
+            this.dimension = cube.world != null ? cube.world.provider.getDimension() : 0;
+            this.salt = salt;
+            this.radius = radius;
+            this.noiseX = GenerationPipeline.unit(GenerationPipeline.seed(worldSeed, salt, 0, 0, 0)) * 4096;
+            this.noiseY = GenerationPipeline.unit(GenerationPipeline.seed(worldSeed, salt, 1, 0, 0)) * 4096;
+            this.noiseZ = GenerationPipeline.unit(GenerationPipeline.seed(worldSeed, salt, 2, 0, 0)) * 4096;
+        }
+        
+        CompletableFuture<Void> dependencies() {
+            int size = 2 * radius + 1;
+            CompletableFuture<?>[] columns = new CompletableFuture<?>[size * size];
+            for (int dx = -radius; dx <= radius; dx++) {
+                for (int dz = -radius; dz <= radius; dz++) {
+                    columns[(dx + radius) * size + dz + radius] =
+                        pipeline.heightmap(cube.x + dx, cube.z + dz, worldSeed);
+                }
+            }
+            return CompletableFuture.allOf(columns);
+        }
+        
+        public int dimension() {
+            return dimension;
+        }
+        
+        /** This generator's random for the cube being generated. */
+        public Random random() {
+            return random(cube.x, cube.y, cube.z);
+        }
+        
+        /** The random this generator uses for another cube, to replay what it places there. */
+        public Random random(int cubeX, int cubeY, int cubeZ) {
+            checkRadius(cubeX, cubeY, cubeZ);
+            return new Random(GenerationPipeline.seed(worldSeed, salt, cubeX, cubeY, cubeZ));
+        }
+        
+        /** The random this generator uses for a whole column of cubes. */
+        public Random columnRandom(int cubeX, int cubeZ) {
+            checkRadius(cubeX, cube.y, cubeZ);
+            return new Random(GenerationPipeline.seed(worldSeed, salt + 1, cubeX, 0, cubeZ));
+        }
+        
+        /** Surface heights of a column, indexed x + z * 16. Must not be modified. */
+        public int[] heightmap(int cubeX, int cubeZ) {
+            checkRadius(cubeX, cube.y, cubeZ);
+            return pipeline.heightmap(cubeX, cubeZ, worldSeed).join();
+        }
+        
+        public int surfaceHeight(int worldX, int worldZ) {
+            return heightmap(worldX >> 4, worldZ >> 4)[(worldX & 15) + (worldZ & 15) * 16];
+        }
+        
+        /** Noise in [0, 1], shifted per world seed and generator. */
+        public double noise(double x, double y, double z) {
+            return GenerationPipeline.perlin3D(x + noiseX, y + noiseY, z + noiseZ);
+        }
+        
+        private void checkRadius(int cubeX, int cubeY, int cubeZ) {
+            if (Math.abs(cubeX - cube.x) > radius || Math.abs(cubeY - cube.y) > radius ||
+                Math.abs(cubeZ - cube.z) > radius) {
+                throw new IllegalStateException("Generator read cube " + cubeX + ", " + cubeY + ", " + cubeZ +
+                    " outside its radius " + radius + " around " + cube.x + ", " + cube.y + ", " + cube.z);
+            }
+        }
+    }
+    
+    static class TerrainGenerator implements CubeGenerator {
+        @Override
+        public int radius() {
+            return 0;
+        }
+        
+        @Override
+        public void generate(CubicChunk cube, GenerationContext context) {
+            // Heightmap-based density: stone up to the surface
+            int[] heights = context.heightmap(cube.x, cube.z);
+            int baseY = cube.y << 4;
+            for (int localX = 0; localX < 16; localX++) {
+                for (int localZ = 0; localZ < 16; localZ++) {
+                    int height = heights[localX + localZ * 16];
+                    for (int localY = 0; localY < 16 && baseY + localY <= height; localY++) {
+                        cube.setBlockID(localX, localY, localZ, (byte)1); // Stone
+                    }
+                }
+            }
+        }
+    }
+    
+    static class SurfaceGenerator implements CubeGenerator {
+        @Override
+        public int radius() {
+            return 0;
+        }
+        
+        @Override
+        public void generate(CubicChunk cube, GenerationContext context) {
+            int[] heights = context.heightmap(cube.x, cube.z);
+            int baseY = cube.y << 4;
+            for (int localX = 0; localX < 16; localX++) {
+                for (int localZ = 0; localZ < 16; localZ++) {
+                    int height = heights[localX + localZ * 16];
+                    for (int localY = 0; localY < 16; localY++) {
+                        int worldY = baseY + localY;
+                        if (worldY > height - 4 && worldY <= height) {
+                            cube.setBlockID(localX, localY, localZ, (byte)3); // Dirt
+                        } else if (worldY == height + 1) {
+                            cube.setBlockID(localX, localY, localZ, (byte)2); // Grass
+                        }
+                    }
+                }
+            }
+        }
+    }
+    
+    static class NoiseCaveCarver implements CubeGenerator {
+        @Override
+        public int radius() {
+            return 0;
+        }
+        
+        @Override
+        public void generate(CubicChunk cube, GenerationContext context) {
+            if (cube.y >= 0) return; // Caves stay underground
+            
+            for (int localX = 0; localX < 16; localX++) {
+                for (int localY = 0; localY < 16; localY++) {
+                    for (int localZ = 0; localZ < 16; localZ++) {
+                        int worldX = (cube.x << 4) + localX;
+                        int worldY = (cube.y << 4) + localY;
+                        int worldZ = (cube.z << 4) + localZ;
+                        
+                        if (context.noise(worldX * 0.1, worldY * 0.1, worldZ * 0.1) > 0.3) {
+                            cube.setBlockID(localX, localY, localZ, (byte)0); // Air (cave)
+                        }
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * One kind of ore vein: the block it places, blocks per vein, average
+     * veins started per cube, and the height range and dimensions it may
+     * appear in. An empty dimension list means everywhere. Loaded from the
+     * {@code ores.<name>} categories of the mod's config file.
+     */
+    public static final class OreConfig {
+        static final String CATEGORY = "ores";
+        static final int MAX_VEIN_SIZE = 16; // Keeps every vein within one cube of its origin
+        
+        public final String name;
+        public final byte block;
+        public final int veinSize;
+        public final double veinsPerCube;
+        public final int minY, maxY;
+        private final int[] dimensions;
+        
+        public OreConfig(String name, int block, int veinSize, double veinsPerCube,
+                         int minY, int maxY, int[] dimensions) {
+            this.name = name;
+            this.block = (byte) block;
+            this.veinSize = Math.max(1, Math.min(MAX_VEIN_SIZE, veinSize));
+            this.veinsPerCube = Math.max(0, veinsPerCube);
+            this.minY = minY;
+            this.maxY = maxY;
+            this.dimensions = dimensions.clone();
+        }
+        
+        public boolean appliesTo(int dimension) {
+            if (dimensions.length == 0) return true;
+            for (int d : dimensions) {
+                if (d == dimension) return true;
+            }
+            return false;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof OreConfig)) return false;
+            OreConfig other = (OreConfig) o;
+            return name.equals(other.name) && block == other.block && veinSize == other.veinSize &&
+                   Double.compare(veinsPerCube, other.veinsPerCube) == 0 &&
+                   minY == other.minY && maxY == other.maxY &&
+                   Arrays.equals(dimensions, other.dimensions);
+        }
+        
+        @Override
+        public int hashCode() {
+            int hash = name.hashCode();
+            hash = hash * 31 + block;
+            hash = hash * 31 + veinSize;
+            hash = hash * 31 + Double.hashCode(veinsPerCube);
+            hash = hash * 31 + minY;
+            hash = hash * 31 + maxY;
+            return hash * 31 + Arrays.hashCode(dimensions);
+        }
+        
+        public static List<OreConfig> defaults() {
+            return Arrays.asList(
+                new OreConfig("iron", 15, 9, 4.0, -256, 0, new int[0]),
+                new OreConfig("gold", 14, 9, 0.5, -256, -32, new int[0]),
+                new OreConfig("diamond", 56, 8, 0.25, -256, -128, new int[0]));
+        }
+        
+        /** Reads every configured vein, writing the defaults into a config without any. */
+        public static List<OreConfig> load(java.io.File file) {
+            net.minecraftforge.common.config.Configuration config =
+                new net.minecraftforge.common.config.Configuration(file);
+            config.load();
+            
+            String prefix = CATEGORY + net.minecraftforge.common.config.Configuration.CATEGORY_SPLITTER;
+            Map<String, OreConfig> defaults = new HashMap<>();
+            for (OreConfig ore : defaults()) {
+                defaults.put(ore.name, ore);
+            }
+            
+            boolean configured = false;
+            for (String category : config.getCategoryNames()) {
+                configured |= category.startsWith(prefix);
+            }
+            if (!configured) {
+                for (OreConfig ore : defaults.values()) {
+                    read(config, prefix + ore.name, ore);
+                }
+            }
+            config.setCategoryComment(CATEGORY, "Ore veins for underground cubes, one sub-category per vein type");
+            
+            // Sorted, since vein order feeds the generator's random draws
+            List<OreConfig> ores = new ArrayList<>();
+            for (String category : new TreeSet<>(config.getCategoryNames())) {
+                if (!category.startsWith(prefix)) continue;
+                String name = category.substring(prefix.length());
+                OreConfig fallback = defaults.containsKey(name) ? defaults.get(name) :
+                    new OreConfig(name, 1, 8, 1.0, -256, 0, new int[0]);
+                ores.add(read(config, category, fallback));
+            }
+            
+            if (config.hasChanged()) {
+                config.save();
+            }
+            return ores;
+        }
+        
+        private static OreConfig read(net.minecraftforge.common.config.Configuration config,
+                                      String category, OreConfig defaults) {
+            // Cubes carry no biomes yet, so a biome filter could only ever disable the vein
+            if (config.hasKey(category, "biomes")) {
+                config.getCategory(category).remove("biomes");
+            }
+            return new OreConfig(defaults.name,
+                config.get(category, "block", defaults.block & 0xFF, "Block ID the vein places").getInt(),
+                config.get(category, "veinSize", defaults.veinSize,
+                    "Blocks per vein, at most " + MAX_VEIN_SIZE).getInt(),
+                config.get(category, "veinsPerCube", defaults.veinsPerCube,
+                    "Average veins started per cube; the fraction is a chance").getDouble(),
+                config.get(category, "minY", defaults.minY, "Lowest block Y").getInt(),
+                config.get(category, "maxY", defaults.maxY, "Highest block Y").getInt(),
+                config.get(category, "dimensions", defaults.dimensions, "Dimension IDs, empty for all").getIntList());
+        }
+    }
+    
+    /**
+     * Places the veins described by {@link OreConfig}. Each cube draws vein
+     * origins and shapes from its own seed and only the vein blocks are
+     * visited, so cost follows ore volume rather than cube volume. A vein can
+     * reach into the cubes around its origin, so every cube replays its 26
+     * neighbours' veins as well and keeps the blocks that land inside it.
+     * Veins only replace stone.
+     */
+    static class OreGenerator implements CubeGenerator {
+        private volatile List<OreConfig> ores = OreConfig.defaults();
+        
+        List<OreConfig> getOres() {
+            return ores;
+        }
+        
+        void setOres(List<OreConfig> ores) {
+            this.ores = new ArrayList<>(ores);
+        }
+        
+        @Override
+        public int radius() {
+            return 1;
+        }
+        
+        @Override
+        public void generate(CubicChunk cube, GenerationContext context) {
+            List<OreConfig> active = new ArrayList<>();
+            for (OreConfig ore : ores) {
+                if (ore.appliesTo(context.dimension()) && ore.veinsPerCube > 0) {
+                    active.add(ore);
+                }
+            }
+            if (active.isEmpty()) return;
+            
+            for (int dx = -1; dx <= 1; dx++) {
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int dz = -1; dz <= 1; dz++) {
+                        replayVeins(cube, context, active, cube.x + dx, cube.y + dy, cube.z + dz);
+                    }
+                }
+            }
+        }
+        
+        private void replayVeins(CubicChunk cube, GenerationContext context, List<OreConfig> active,
+                                 int sourceX, int sourceY, int sourceZ) {
+            Random random = null;
+            for (OreConfig ore : active) {
+                int low = Math.max(ore.minY, sourceY << 4);
+                int high = Math.min(ore.maxY, (sourceY << 4) + 15);
+                if (low > high) continue;
+                
+                if (random == null) {
+                    random = context.random(sourceX, sourceY, sourceZ);
+                }
+                int veins = (int) ore.veinsPerCube;
+                if (random.nextDouble() < ore.veinsPerCube - veins) {
+                    veins++;
+                }
+                
+                for (int i = 0; i < veins; i++) {
+                    int x = (sourceX << 4) + random.nextInt(16);
+                    int y = low + random.nextInt(high - low + 1);
+                    int z = (sourceZ << 4) + random.nextInt(16);
+                    long shape = random.nextLong();
+                    
+                    // Only walk veins that can reach this cube
+                    int reach = ore.veinSize - 1;
+                    if (x + reach >= cube.x << 4 && x - reach <= (cube.x << 4) + 15 &&
+                        y + reach >= cube.y << 4 && y - reach <= (cube.y << 4) + 15 &&
+                        z + reach >= cube.z << 4 && z - reach <= (cube.z << 4) + 15) {
+                        placeVein(cube, ore, x, y, z, new Random(shape));
+                    }
+                }
+            }
+        }
+        
+        private void placeVein(CubicChunk cube, OreConfig ore, int x, int y, int z, Random shape) {
+            for (int i = 0; i < ore.veinSize; i++) {
+                if (x >> 4 == cube.x && y >> 4 == cube.y && z >> 4 == cube.z &&
+                    cube.getBlockID(x & 15, y & 15, z & 15) == 1) {
+                    cube.setBlockID(x & 15, y & 15, z & 15, ore.block);
+                }
+                
+                int step = shape.nextBoolean() ? 1 : -1;
+                switch (shape.nextInt(3)) {
+                    case 0: x += step; break;
+                    case 1: y += step; break;
+                    default: z += step; break;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Up to two trees per column on the surface. Canopies reach two blocks
+     * past their trunk, so every cube replays the trees of the 3x3 columns
+     * around it and keeps the blocks that fall inside it. Logs win over
+     * leaves and leaves only fill air, which makes overlapping trees come out
+     * the same in whatever order they are applied.
+     */
+    static class TreeFeature implements CubeGenerator {
+        private static final byte LOG = 17;
+        private static final byte LEAVES = 18;
+        
+        @Override
+        public int radius() {
+            return 1;
+        }
+        
+        @Override
+        public void generate(CubicChunk cube, GenerationContext context) {
+            for (int dx = -1; dx <= 1; dx++) {
+                for (int dz = -1; dz <= 1; dz++) {
+                    int columnX = cube.x + dx;
+                    int columnZ = cube.z + dz;
+                    Random random = context.columnRandom(columnX, columnZ);
+                    
+                    int trees = random.nextInt(3);
+                    for (int i = 0; i < trees; i++) {
+                        int worldX = (columnX << 4) + random.nextInt(16);
+                        int worldZ = (columnZ << 4) + random.nextInt(16);
+                        int trunk = 4 + random.nextInt(3);
+                        int baseY = context.surfaceHeight(worldX, worldZ) + 2; // Above the grass
+                        placeTree(cube, worldX, baseY, worldZ, trunk);
+                    }
+                }
+            }
+        }
+        
+        private void placeTree(CubicChunk cube, int worldX, int baseY, int worldZ, int trunk) {
+            int top = baseY + trunk - 1;
+            if (top + 1 < cube.y << 4 || baseY > (cube.y << 4) + 15) return;
+            
+            for (int y = top - 2; y <= top + 1; y++) {
+                int spread = y > top - 1 ? 1 : 2;
+                for (int x = worldX - spread; x <= worldX + spread; x++) {
+                    for (int z = worldZ - spread; z <= worldZ + spread; z++) {
+                        if (isInside(cube, x, y, z) && cube.getBlockID(x & 15, y & 15, z & 15) == 0) {
+                            cube.setBlockID(x & 15, y & 15, z & 15, LEAVES);
+                        }
+                    }
+                }
+            }
+            for (int y = baseY; y <= top; y++) {
+                if (isInside(cube, worldX, y, worldZ)) {
+                    cube.setBlockID(worldX & 15, y & 15, worldZ & 15, LOG);
+                }
+            }
+        }
+        
+        private static boolean isInside(CubicChunk cube, int x, int y, int z) {
+            return x >> 4 == cube.x && y >> 4 == cube.y && z >> 4 == cube.z;
+        }
+    }
+    
+    // Chunk Storage System
+    public static class ChunkStorageSystem {
+        static final String CHUNK_DATA_FOLDER = "cubicchunks";
+        static final int CUBE_FILE_SIZE = 4096 * 3 + 256;
+        
+        private static final Map<Integer, ChunkJournal> journals = new ConcurrentHashMap<>();
+        private static volatile boolean journalEnabled;
+        
+        public static void initialize() {
+            // Create data directory
+            java.io.File dir = new java.io.File(
+                net.minecraftforge.common.DimensionManager.getCurrentSaveRootDirectory(),
+                CHUNK_DATA_FOLDER);
+            if (!dir.exists()) {
+                dir.mkdirs();
+            }
+        }
+        
+        /**
+         * Turns on journaled saves for the current world. Each dimension gets
+         * its own journal, opened (and replayed, if a previous run left
+         * anything behind) the first time that dimension is read or written.
+         */
+        public static void openJournal() {
+            journalEnabled = true;
+        }
+        
+        public static void closeJournal() {
+            journalEnabled = false;
+            for (ChunkJournal journal : journals.values()) {
+                journal.close();
+            }
+            journals.clear();
+        }
+        
+        private static ChunkJournal journal(int dimension) {
+            if (!journalEnabled) return null;
+            
+            ChunkJournal journal = journals.get(dimension);
+            if (journal != null) return journal;
+            
+            synchronized (journals) {
+                journal = journals.get(dimension);
+                if (journal == null && journalEnabled) {
+                    java.io.File dir = new java.io.File(
+                        net.minecraftforge.common.DimensionManager.getWorldDirectory(dimension),
+                        CHUNK_DATA_FOLDER);
+                    if (!dir.exists()) {
+                        dir.mkdirs();
+                    }
+                    try {
+                        journal = new ChunkJournal(new java.io.File(dir, ChunkJournal.JOURNAL_FILE),
+                            "CubicChunk-Journal-" + dimension);
+                        journals.put(dimension, journal);
+                    } catch (IOException e) {
+                        logger.error("Could not open cube journal for dimension {}, saving directly: {}",
+                            dimension, e);
+                    }
+                }
+                return journal;
+            }
+        }
+        
+        public static boolean exists(World world, int x, int y, int z) {
+            int dimension = world.provider.getDimension();
+            ChunkJournal journal = journal(dimension);
+            return (journal != null && journal.pendingPayload(dimension, x, y, z) != null) ||
+                   getChunkFile(dimension, x, y, z).exists();
+        }
+        
+        /** A save of this cube still waiting in the journal, or null. */
+        static byte[] pendingPayload(int dimension, int x, int y, int z) {
+            ChunkJournal journal = journal(dimension);
+            return journal != null ? journal.pendingPayload(dimension, x, y, z) : null;
+        }
+        
+        /** Keys of the dimension's cubes with a save still in the journal. */
+        static TreeSet<Long> pendingCubeKeys(int dimension) {
+            ChunkJournal journal = journal(dimension);
+            return journal != null ? journal.pendingKeys(dimension) : new TreeSet<>();
+        }
+        
+        public static CubicChunk loadChunk(World world, int x, int y, int z) {
+            int dimension = world.provider.getDimension();
+            
+            // A save still in the journal is newer than whatever is in the file
+            ChunkJournal journal = journal(dimension);
+            byte[] pending = journal != null ? journal.pendingPayload(dimension, x, y, z) : null;
+            if (pending != null) {
+                CubicChunk chunk = new CubicChunk(world, x, y, z, false);
+                chunk.loadData(pending, 0);
+                return chunk;
+            }
+            
+            return loadChunk(world, x, y, z, getChunkFile(dimension, x, y, z));
+        }
+        
+        static CubicChunk loadChunk(World world, int x, int y, int z, java.io.File chunkFile) {
+            if (!chunkFile.exists()) {
+                return null;
+            }
+            
+            long start = System.nanoTime();
+            CubicChunk chunk = new CubicChunk(world, x, y, z, false);
+            try (java.nio.channels.FileChannel channel = java.nio.channels.FileChannel.open(
+                     chunkFile.toPath(), java.nio.file.StandardOpenOption.READ)) {
+                
+                // Blocks, metadata, light and biomes back to back, read straight into the cube
+                java.nio.ByteBuffer[] target = chunk.dataBuffers();
+                long read = 0;
+                while (read < CUBE_FILE_SIZE) {
+                    long n = channel.read(target);
+                    if (n < 0) throw new java.io.EOFException();
+                    read += n;
+                }
+                
+                chunk.markLoaded();
+                chunk.compact();
+                METRICS.add(MetricCounter.BYTES_READ, CUBE_FILE_SIZE);
+                METRICS.recordNanos(MetricTimer.LOAD, System.nanoTime() - start);
+                return chunk;
+                
+            } catch (java.io.EOFException e) {
+                chunk.release();
+                // Only files written before the journal existed can be short;
+                // keep the evidence instead of silently overwriting it
+                java.io.File corrupt = new java.io.File(chunkFile.getPath() + ".corrupt");
+                chunkFile.renameTo(corrupt);
+                logger.warn("Truncated cube file {}, moved to {} and regenerating", chunkFile, corrupt);
+                return null;
+            } catch (java.io.IOException e) {
+                chunk.release();
+                e.printStackTrace();
+                return null;
+            }
+        }
+        
+        public static void saveChunk(CubicChunk chunk) {
+            int dimension = chunk.world.provider.getDimension();
+            if (chunk.isPristine()) {
+                // Pregeneration: the file now shadows any cached copy
+                PRISTINE_CUBES.invalidate(dimension, chunk.x, chunk.y, chunk.z);
+            }
+            ChunkJournal journal = journal(dimension);
+            if (journal != null) {
+                journal.append(dimension, chunk);
+            } else {
+                saveChunk(chunk, getChunkFile(chunk.world, chunk.x, chunk.y, chunk.z));
+            }
+        }
+        
+        static void saveChunk(CubicChunk chunk, java.io.File chunkFile) {
+            long start = System.nanoTime();
+            byte[] data = CUBE_ARRAYS.acquireScratch();
+            
+            try {
+                if (!chunk.copyDataTo(data, 0)) return;
+                writeCubeFile(chunkFile, data);
+                METRICS.increment(MetricCounter.SAVED);
+                METRICS.recordNanos(MetricTimer.SAVE, System.nanoTime() - start);
+            } catch (java.io.IOException e) {
+                e.printStackTrace();
+            } finally {
+                CUBE_ARRAYS.releaseScratch(data);
+            }
+        }
+        
+        /**
+         * Replaces a cube file atomically: the data is written and synced to
+         * a sibling temp file which is then renamed over the target, so a
+         * reader sees either the old cube or the new one, never a mix.
+         */
+        static void writeCubeFile(java.io.File chunkFile, byte[] data) throws IOException {
+            writeCubeFile(chunkFile, java.nio.ByteBuffer.wrap(data));
+        }
+        
+        /** Gathering variant for callers that hold a cube's arrays in separate buffers. */
+        static void writeCubeFile(java.io.File chunkFile, java.nio.ByteBuffer... data) throws IOException {
+            replaceFile(chunkFile, true, data);
+        }
+        
+        /**
+         * Replaces many cube files with one sync per directory instead of one
+         * per file, for bulk imports. Each file is still swapped in by rename,
+         * but its data is left to the OS to flush; after a crash part way
+         * through, a cube may come back short, which loads as truncated and is
+         * regenerated. The import file is untouched, so the import can be rerun.
+         */
+        static void writeCubeFiles(List<java.io.File> chunkFiles, List<java.nio.ByteBuffer[]> data) throws IOException {
+            Set<java.io.File> dirs = new LinkedHashSet<>();
+            for (int i = 0; i < chunkFiles.size(); i++) {
+                replaceFile(chunkFiles.get(i), false, data.get(i));
+                dirs.add(chunkFiles.get(i).getParentFile());
+            }
+            for (java.io.File dir : dirs) {
+                try (java.nio.channels.FileChannel channel = java.nio.channels.FileChannel.open(
+                         dir.toPath(), java.nio.file.StandardOpenOption.READ)) {
+                    channel.force(true); // Makes the renames durable
+                } catch (IOException e) {
+                    // Directories can't be opened on Windows; NTFS journals the renames itself
+                }
+            }
+        }
+        
+        private static void replaceFile(java.io.File chunkFile, boolean sync, java.nio.ByteBuffer... data) throws IOException {
+            java.io.File temp = new java.io.File(chunkFile.getPath() + ".tmp");
+            long written = 0;
+            try (java.nio.channels.FileChannel out = java.nio.channels.FileChannel.open(temp.toPath(),
+                     java.nio.file.StandardOpenOption.CREATE, java.nio.file.StandardOpenOption.WRITE,
+                     java.nio.file.StandardOpenOption.TRUNCATE_EXISTING)) {
+                java.nio.ByteBuffer last = data[data.length - 1];
+                while (last.hasRemaining()) {
+                    written += out.write(data);
+                }
+                if (sync) {
+                    out.force(true);
+                }
+            }
+            java.nio.file.Files.move(temp.toPath(), chunkFile.toPath(),
+                java.nio.file.StandardCopyOption.REPLACE_EXISTING,
+                java.nio.file.StandardCopyOption.ATOMIC_MOVE);
+            METRICS.add(MetricCounter.BYTES_WRITTEN, written);
+        }
+        
+        private static java.io.File getChunkFile(World world, int x, int y, int z) {
+            return getChunkFile(world.provider.getDimension(), x, y, z);
+        }
+        
+        static java.io.File getChunkFile(int dimension, int x, int y, int z) {
+            java.io.File worldDir = new java.io.File(
+                net.minecraftforge.common.DimensionManager.getWorldDirectory(dimension),
+                CHUNK_DATA_FOLDER);
+            
+            // Organize by region (like vanilla)
+            int regionX = x >> 5;
+            int regionY = y >> 5;
+            int regionZ = z >> 5;
+            
+            java.io.File regionDir = new java.io.File(worldDir, 
+                String.format("region_%d_%d_%d", regionX, regionY, regionZ));
+            if (!regionDir.exists()) {
+                regionDir.mkdirs();
+            }
+            
+            return new java.io.File(regionDir, 
+                String.format("chunk_%d_%d_%d.dat", x & 31, y & 31, z & 31));
+        }
+    }
+    
+    /**
+     * Write-ahead journal for cube saves.
+     *
+     * {@link #append} snapshots a cube and returns immediately. A single
+     * background thread drains everything queued, writes it to the journal
+     * with one gathering write and one fsync (group commit), then applies
+     * the batch to the cube files and truncates the journal once it has
+     * caught up. Each record carries a CRC32, so on startup a torn tail left
+     * by a crash is detected and dropped while every complete record before
+     * it is replayed.
+     */
+    public static class ChunkJournal implements Runnable {
+        static final String JOURNAL_FILE = "journal.wal";
+        private static final int RECORD_MAGIC = 0x43434A31; // "CCJ1"
+        private static final int HEADER_SIZE = 36;
+        private static final int MAX_BATCH = 256;
+        private static final long RETRY_DELAY_MS = 500;
+        private static final int SHUTDOWN_RETRIES = 3;
+        
+        private final java.io.File file;
+        private final java.nio.channels.FileChannel channel;
+        private final java.util.concurrent.LinkedBlockingQueue<JournalRecord> queue =
+            new java.util.concurrent.LinkedBlockingQueue<>();
+        private final Map<CubeAddress, JournalRecord> pending = new ConcurrentHashMap<>();
+        private final AtomicLong sequence = new AtomicLong();
+        private final List<JournalRecord> recovered = new ArrayList<>(); // Replayed but not yet applied
+        private final Thread writerThread;
+        private volatile boolean running = true;
+        
+        public ChunkJournal(java.io.File file, String threadName) throws IOException {
+            this.file = file;
+            this.channel = java.nio.channels.FileChannel.open(file.toPath(),
+                java.nio.file.StandardOpenOption.CREATE,
+                java.nio.file.StandardOpenOption.READ,
+                java.nio.file.StandardOpenOption.WRITE);
+            
+            replay();
+            
+            writerThread = new Thread(this, threadName);
+            writerThread.setDaemon(true);
+            writerThread.start();
+        }
+        
+        public void append(int dimension, CubicChunk chunk) {
+            // The payload outlives this call in the pending map, so it is not pooled
+            byte[] payload = new byte[ChunkStorageSystem.CUBE_FILE_SIZE];
+            if (!chunk.copyDataTo(payload, 0)) return;
+            
+            JournalRecord record = new JournalRecord(
+                new CubeAddress(dimension, chunk.x, chunk.y, chunk.z),
+                sequence.incrementAndGet(), payload);
+            pending.put(record.address, record);
+            queue.add(record);
+        }
+        
+        /** Latest snapshot of a cube that is not yet in its cube file, or null. */
+        public byte[] pendingPayload(int dimension, int x, int y, int z) {
+            JournalRecord record = pending.get(new CubeAddress(dimension, x, y, z));
+            return record != null ? record.payload : null;
+        }
+        
+        public int getPendingCount() {
+            return pending.size();
+        }
+        
+        TreeSet<Long> pendingKeys(int dimension) {
+            TreeSet<Long> keys = new TreeSet<>();
+            for (CubeAddress address : pending.keySet()) {
+                if (address.dimension == dimension) {
+                    keys.add(CubeKeys.pack(address.x, address.y, address.z));
+                }
+            }
+            return keys;
+        }
+        
+        /** Commits and applies everything queued, then releases the file. */
+        public void close() {
+            running = false;
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        
+        @Override
+        public void run() {
+            // Never interrupted: an interrupt would close the channel mid-write
+            List<JournalRecord> batch = new ArrayList<>();           // Kept until it commits
+            List<JournalRecord> unapplied = new ArrayList<>(recovered); // Committed, not yet in cube files
+            recovered.clear();
+            int failures = 0;
+            
+            while (running || !queue.isEmpty() || !batch.isEmpty() || !unapplied.isEmpty()) {
+                if (!running && failures > SHUTDOWN_RETRIES) {
+                    // Whatever committed stays in the log and is replayed on the next start
+                    logger.error("Giving up on {} cube saves at shutdown; the journal {} keeps the committed ones",
+                        batch.size() + unapplied.size() + queue.size(), file);
+                    break;
+                }
+                try {
+                    if (failures > 0) {
+                        Thread.sleep(RETRY_DELAY_MS * Math.min(failures, 10));
+                    } else if (batch.isEmpty() && unapplied.isEmpty()) {
+                        JournalRecord first = queue.poll(100, java.util.concurrent.TimeUnit.MILLISECONDS);
+                        if (first == null) continue;
+                        batch.add(first);
+                    }
+                    queue.drainTo(batch, Math.max(0, MAX_BATCH - batch.size()));
+                    
+                    if (!batch.isEmpty()) {
+                        commit(batch);
+                        unapplied.addAll(batch);
+                        batch.clear();
+                    }
+                    apply(unapplied);
+                    failures = 0;
+                    
+                    // Everything committed has reached its cube file
+                    if (queue.isEmpty()) {
+                        channel.truncate(0);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (IOException e) {
+                    failures++;
+                    logger.error("Cube journal write failed, retrying {} uncommitted and {} unapplied saves: {}",
+                        batch.size(), unapplied.size(), e);
+                }
+            }
+        }
+        
+        private void commit(List<JournalRecord> batch) throws IOException {
+            java.nio.ByteBuffer[] buffers = new java.nio.ByteBuffer[batch.size() * 2];
+            long remaining = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                JournalRecord record = batch.get(i);
+                buffers[i * 2] = record.header();
+                buffers[i * 2 + 1] = java.nio.ByteBuffer.wrap(record.payload);
+                remaining += HEADER_SIZE + record.payload.length;
+            }
+            
+            long start = channel.position();
+            try {
+                while (remaining > 0) {
+                    remaining -= channel.write(buffers);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                // Cut off the partial batch, or replay would stop at it and miss later records
+                try {
+                    channel.truncate(start);
+                    channel.position(start);
+                } catch (IOException truncateFailure) {
+                    e.addSuppressed(truncateFailure);
+                }
+                throw e;
+            }
+            
+            long now = System.nanoTime();
+            for (JournalRecord record : batch) {
+                METRICS.recordNanos(MetricTimer.SAVE, now - record.enqueuedAt);
+            }
+            METRICS.add(MetricCounter.SAVED, batch.size());
+            METRICS.increment(MetricCounter.JOURNAL_COMMITS);
+        }
+        
+        /**
+         * Writes the newest snapshot of each cube to its file and removes the
+         * records that made it from the list. Every cube is tried; the first
+         * failure is rethrown afterwards and its records stay for a retry.
+         */
+        private void apply(List<JournalRecord> records) throws IOException {
+            Map<CubeAddress, JournalRecord> latest = new LinkedHashMap<>();
+            for (JournalRecord record : records) {
+                JournalRecord previous = latest.get(record.address);
+                if (previous == null || previous.sequence < record.sequence) {
+                    latest.put(record.address, record);
+                }
+            }
+            
+            Set<CubeAddress> applied = new HashSet<>();
+            IOException failure = null;
+            for (JournalRecord record : latest.values()) {
+                CubeAddress address = record.address;
+                try {
+                    ChunkStorageSystem.writeCubeFile(ChunkStorageSystem.getChunkFile(
+                        address.dimension, address.x, address.y, address.z), record.payload);
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                    continue;
+                }
+                applied.add(address);
+                pending.remove(address, record);
+            }
+            records.removeIf(record -> applied.contains(record.address));
+            
+            if (failure != null) {
+                throw failure;
+            }
+        }
+        
+        private void replay() throws IOException {
+            long size = channel.size();
+            if (size == 0) return;
+            
+            List<JournalRecord> records = new ArrayList<>();
+            java.nio.ByteBuffer header = java.nio.ByteBuffer.allocate(HEADER_SIZE);
+            long position = 0;
+            
+            while (position + HEADER_SIZE <= size) {
+                header.clear();
+                channel.read(header, position);
+                header.flip();
+                
+                int magic = header.getInt();
+                int length = header.getInt();
+                int checksum = header.getInt();
+                if (magic != RECORD_MAGIC || length != ChunkStorageSystem.CUBE_FILE_SIZE ||
+                    position + HEADER_SIZE + length > size) {
+                    break;
+                }
+                
+                CubeAddress address = new CubeAddress(
+                    header.getInt(), header.getInt(), header.getInt(), header.getInt());
+                long seq = header.getLong();
+                
+                byte[] payload = new byte[length];
+                java.nio.ByteBuffer body = java.nio.ByteBuffer.wrap(payload);
+                while (body.hasRemaining()) {
+                    channel.read(body, position + HEADER_SIZE + body.position());
+                }
+                
+                JournalRecord record = new JournalRecord(address, seq, payload);
+                if (record.checksum() != checksum) {
+                    break;
+                }
+                
+                records.add(record);
+                sequence.set(Math.max(sequence.get(), seq));
+                position += HEADER_SIZE + length;
+            }
+            
+            if (position < size) {
+                logger.warn("Discarding {} bytes of torn cube journal at offset {} in {}",
+                    size - position, position, file);
+            }
+            if (!records.isEmpty()) {
+                logger.info("Replaying {} journaled cube saves", records.size());
+                try {
+                    apply(records);
+                } catch (IOException e) {
+                    // Keep them in the log and serve them from memory; the writer retries
+                    logger.error("Could not replay {} cube saves yet: {}", records.size(), e);
+                    for (JournalRecord record : records) {
+                        pending.merge(record.address, record, (a, b) -> a.sequence >= b.sequence ? a : b);
+                    }
+                    recovered.addAll(records);
+                }
+            }
+            
+            // New records go after the intact ones, over any torn tail
+            channel.truncate(records.isEmpty() ? 0 : position);
+            channel.position(records.isEmpty() ? 0 : position);
+            channel.force(false);
+        }
+    }
+    
+    static final class CubeAddress {
+        final int dimension, x, y, z;
+        
+        CubeAddress(int dimension, int x, int y, int z) {
+            this.dimension = dimension;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof CubeAddress)) return false;
+            CubeAddress other = (CubeAddress) o;
+            return dimension == other.dimension && x == other.x && y == other.y && z == other.z;
+        }
+        
+        @Override
+        public int hashCode() {
+            return ((dimension * 31 + x) * 31 + y) * 31 + z;
+        }
+    }
+    
+    static final class JournalRecord {
+        final CubeAddress address;
+        final long sequence;
+        final byte[] payload;
+        final long enqueuedAt = System.nanoTime();
+        
+        JournalRecord(CubeAddress address, long sequence, byte[] payload) {
+            this.address = address;
+            this.sequence = sequence;
+            this.payload = payload;
+        }
+        
+        java.nio.ByteBuffer header() {
+            java.nio.ByteBuffer header = java.nio.ByteBuffer.allocate(ChunkJournal.HEADER_SIZE);
+            header.putInt(ChunkJournal.RECORD_MAGIC)
+                  .putInt(payload.length)
+                  .putInt(checksum())
+                  .putInt(address.dimension)
+                  .putInt(address.x)
+                  .putInt(address.y)
+                  .putInt(address.z)
+                  .putLong(sequence);
+            header.flip();
+            return header;
+        }
+        
+        /** CRC32 over the address, sequence and payload. */
+        int checksum() {
+            java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+            java.nio.ByteBuffer fields = java.nio.ByteBuffer.allocate(24);
+            fields.putInt(address.dimension).putInt(address.x).putInt(address.y)
+                  .putInt(address.z).putLong(sequence);
+            crc.update(fields.array());
+            crc.update(payload);
+            return (int) crc.getValue();
+        }
+    }
+    
+    // Pristine Cube Cache
+    /**
+     * Compressed output of cubes that were generated and unloaded without
+     * ever being modified. Such cubes are never saved, so without this cache
+     * every reload would run the generator again; with it a reload is one
+     * inflate and no disk I/O.
+     *
+     * Entries live in an LRU bounded by {@link CubicChunkMod#PRISTINE_CACHE_MAX_MB}.
+     * With {@link CubicChunkMod#PRISTINE_DISK_CACHE} set, evicted entries spill
+     * to files under a directory named after the generator fingerprint.
+     * A lookup removes the entry, since the cube is resident from then on.
+     * Every call carries the current fingerprint: a new generator version,
+     * seed or ore config empties the memory tier and points the disk tier at
+     * a fresh directory, and older directories are deleted in the background.
+     */
+    public static final class PristineCubeCache {
+        static final String FOLDER = "pristine";
+        
+        private final LinkedHashMap<CubeAddress, byte[]> entries = new LinkedHashMap<>(256, 0.75f, true);
+        private long cachedBytes;
+        private long stamp;
+        private final Set<Integer> sweptDimensions = ConcurrentHashMap.newKeySet();
+        private final ThreadLocal<java.util.zip.Deflater> deflaters =
+            ThreadLocal.withInitial(() -> new java.util.zip.Deflater(java.util.zip.Deflater.BEST_SPEED));
+        private final ThreadLocal<java.util.zip.Inflater> inflaters =
+            ThreadLocal.withInitial(java.util.zip.Inflater::new);
+        
+        /** Keeps an unmodified cube that is being unloaded. */
+        public void put(int dimension, CubicChunk cube, long stamp) {
+            byte[] compressed = compress(cube);
+            if (compressed == null) return;
+            
+            CubeAddress address = new CubeAddress(dimension, cube.x, cube.y, cube.z);
+            Map<CubeAddress, byte[]> evicted = new LinkedHashMap<>();
+            synchronized (this) {
+                checkStamp(stamp);
+                byte[] previous = entries.put(address, compressed);
+                cachedBytes += compressed.length - (previous != null ? previous.length : 0);
+                
+                long max = (long) PRISTINE_CACHE_MAX_MB << 20;
+                Iterator<Map.Entry<CubeAddress, byte[]>> it = entries.entrySet().iterator();
+                while (cachedBytes > max && it.hasNext()) {
+                    Map.Entry<CubeAddress, byte[]> eldest = it.next();
+                    cachedBytes -= eldest.getValue().length;
+                    evicted.put(eldest.getKey(), eldest.getValue());
+                    it.remove();
+                }
+            }
+            
+            if (PRISTINE_DISK_CACHE && cube.world != null) {
+                for (Map.Entry<CubeAddress, byte[]> entry : evicted.entrySet()) {
+                    spill(entry.getKey(), entry.getValue(), stamp);
+                }
+            }
+        }
+        
+        /**
+         * Restores a cube generated under the given fingerprint.
+         *
+         * @return the cube, or null if neither tier holds it
+         */
+        public CubicChunk load(int dimension, World world, int x, int y, int z, long stamp) {
+            CubeAddress address = new CubeAddress(dimension, x, y, z);
+            byte[] compressed;
+            synchronized (this) {
+                checkStamp(stamp);
+                compressed = entries.remove(address);
+                if (compressed != null) {
+                    cachedBytes -= compressed.length;
+                }
+            }
+            
+            if (compressed == null && PRISTINE_DISK_CACHE && world != null) {
+                java.io.File file = getCacheFile(address, stamp);
+                if (file.exists()) {
+                    try {
+                        compressed = java.nio.file.Files.readAllBytes(file.toPath());
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                    file.delete();
+                }
+            }
+            if (compressed == null) return null;
+            
+            CubicChunk cube = new CubicChunk(world, x, y, z, false);
+            if (!inflate(compressed, cube)) {
+                logger.warn("Discarding corrupt pristine cache entry for cube ({}, {}, {})", x, y, z);
+                cube.release();
+                return null;
+            }
+            cube.markLoaded();
+            cube.markPristine();
+            cube.compact();
+            return cube;
+        }
+        
+        /** Forgets a cube whose file is about to be written, so the file is not shadowed. */
+        public void invalidate(int dimension, int x, int y, int z) {
+            synchronized (this) {
+                byte[] removed = entries.remove(new CubeAddress(dimension, x, y, z));
+                if (removed != null) {
+                    cachedBytes -= removed.length;
+                }
+            }
+            if (PRISTINE_DISK_CACHE) {
+                getCacheFile(new CubeAddress(dimension, x, y, z), currentStamp()).delete();
+            }
+        }
+        
+        public synchronized long getCachedBytes() {
+            return cachedBytes;
+        }
+        
+        public synchronized int size() {
+            return entries.size();
+        }
+        
+        private synchronized long currentStamp() {
+            return stamp;
+        }
+        
+        private void checkStamp(long stamp) {
+            if (stamp != this.stamp) {
+                entries.clear();
+                cachedBytes = 0;
+                this.stamp = stamp;
+                sweptDimensions.clear();
+            }
+        }
+        
+        private byte[] compress(CubicChunk cube) {
+            byte[] raw = CUBE_ARRAYS.acquireScratch();
+            byte[] out = CUBE_ARRAYS.acquireScratch();
+            try {
+                if (!cube.copyDataTo(raw, 0)) return null;
+                
+                java.util.zip.Deflater deflater = deflaters.get();
+                deflater.reset();
+                deflater.setInput(raw);
+                deflater.finish();
+                int length = deflater.deflate(out);
+                // Output no smaller than the cube is not worth keeping
+                return deflater.finished() ? Arrays.copyOf(out, length) : null;
+            } finally {
+                CUBE_ARRAYS.releaseScratch(out);
+                CUBE_ARRAYS.releaseScratch(raw);
+            }
+        }
+        
+        private boolean inflate(byte[] compressed, CubicChunk cube) {
+            java.util.zip.Inflater inflater = inflaters.get();
+            inflater.reset();
+            inflater.setInput(compressed);
+            try {
+                // Straight into the cube's own arrays, in cube file order
+                for (java.nio.ByteBuffer target : cube.dataBuffers()) {
+                    while (target.hasRemaining()) {
+                        int n = inflater.inflate(target.array(), target.position(), target.remaining());
+                        if (n == 0 && (inflater.finished() || inflater.needsInput())) return false;
+                        target.position(target.position() + n);
+                    }
+                }
+                return true;
+            } catch (java.util.zip.DataFormatException e) {
+                return false;
+            }
+        }
+        
+        private void spill(CubeAddress address, byte[] compressed, long stamp) {
+            java.io.File file = getCacheFile(address, stamp);
+            try {
+                // A cache needs no fsync: a torn file fails to inflate and counts as a miss
+                java.nio.file.Files.write(file.toPath(), compressed);
+            } catch (IOException e) {
+                logger.warn("Could not spill pristine cube to {}: {}", file, e);
+            }
+        }
+        
+        private java.io.File getCacheFile(CubeAddress address, long stamp) {
+            java.io.File root = new java.io.File(new java.io.File(
+                net.minecraftforge.common.DimensionManager.getWorldDirectory(address.dimension),
+                ChunkStorageSystem.CHUNK_DATA_FOLDER), FOLDER);
+            String current = Long.toHexString(stamp);
+            if (sweptDimensions.add(address.dimension)) {
+                sweepStale(root, current);
+            }
+            
+            java.io.File regionDir = new java.io.File(new java.io.File(root, current),
+                String.format("region_%d_%d_%d", address.x >> 5, address.y >> 5, address.z >> 5));
+            if (!regionDir.exists()) {
+                regionDir.mkdirs();
+            }
+            return new java.io.File(regionDir,
+                String.format("cube_%d_%d_%d.dfl", address.x & 31, address.y & 31, address.z & 31));
+        }
+        
+        /** Deletes directories left behind by earlier generator fingerprints. */
+        private void sweepStale(java.io.File root, String current) {
+            java.io.File[] stale = root.listFiles(file -> file.isDirectory() && !file.getName().equals(current));
+            if (stale == null || stale.length == 0) return;
+            
+            Thread sweeper = new Thread(() -> {
+                for (java.io.File dir : stale) {
+                    try (java.util.stream.Stream<java.nio.file.Path> paths = java.nio.file.Files.walk(dir.toPath())) {
+                        paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+                    } catch (IOException e) {
+                        logger.warn("Could not delete stale pristine cache {}: {}", dir, e);
+                    }
+                }
+            }, "CubicChunk-Pristine-Sweep");
+            sweeper.setDaemon(true);
+            sweeper.start();
+        }
+    }
+    
+    // Bulk Export and Import
+    /**
+     * Streams every stored cube of a dimension to or from a single batch
+     * file for backups and offline analysis.
+     *
+     * Layout: a header (magic, version, dimension), then batches of up to
+     * {@link #BATCH_CUBES} cubes, each a header (cube count, raw length,
+     * compressed length) followed by one deflate stream of columns: all x,
+     * then all y and z coordinates, then the block arrays of every cube back
+     * to back, then metadata, light and biomes. A batch with zero cubes ends
+     * the file. Like data compresses far better next to like, and cubes are
+     * visited region by region in Z-order so neighbours share a batch.
+     *
+     * Cube files are scattered straight into their column slots on export
+     * and gathered straight from them on import, so memory stays at two
+     * batch buffers however large the dimension is.
+     */
+    public static class CubeBatchTransfer {
+        static final int MAGIC = 0x43434231; // "CCB1"
+        static final int VERSION = 1;
+        static final int BATCH_CUBES = 64;
+        private static final int CUBE_BYTES = 3 * 4 + ChunkStorageSystem.CUBE_FILE_SIZE;
+        private static final int MAX_RAW = BATCH_CUBES * CUBE_BYTES;
+        private static final java.util.regex.Pattern REGION_NAME =
+            java.util.regex.Pattern.compile("region_(-?\\d+)_(-?\\d+)_(-?\\d+)");
+        private static final java.util.regex.Pattern CUBE_NAME =
+            java.util.regex.Pattern.compile("chunk_(\\d+)_(\\d+)_(\\d+)\\.dat");
+        
+        private final int dimension;
+        private final java.io.File file;
+        private final byte[] raw = new byte[MAX_RAW];
+        private final byte[] compressed = new byte[MAX_RAW + (MAX_RAW >> 12) + (MAX_RAW >> 14) + 64];
+        private final long[] batchKeys = new long[BATCH_CUBES];
+        private long cubes;
+        private long skipped;
+        
+        public CubeBatchTransfer(int dimension, java.io.File file) {
+            this.dimension = dimension;
+            this.file = file;
+        }
+        
+        public long getCubes() {
+            return cubes;
+        }
+        
+        public long getSkipped() {
+            return skipped;
+        }
+        
+        /** Writes every cube stored for the dimension, preferring saves still in the journal. */
+        public void exportCubes() throws IOException {
+            java.io.File dataDir = new java.io.File(
+                net.minecraftforge.common.DimensionManager.getWorldDirectory(dimension),
+                ChunkStorageSystem.CHUNK_DATA_FOLDER);
+            java.io.File temp = new java.io.File(file.getPath() + ".tmp");
+            
+            try (java.nio.channels.FileChannel out = java.nio.channels.FileChannel.open(temp.toPath(),
+                     java.nio.file.StandardOpenOption.CREATE, java.nio.file.StandardOpenOption.WRITE,
+                     java.nio.file.StandardOpenOption.TRUNCATE_EXISTING)) {
+                java.nio.ByteBuffer header = java.nio.ByteBuffer.allocate(12);
+                header.putInt(MAGIC).putInt(VERSION).putInt(dimension).flip();
+                writeFully(out, header);
+                
+                // Saves still in the journal may not have a cube file yet
+                TreeSet<Long> pendingOnly = ChunkStorageSystem.pendingCubeKeys(dimension);
+                int count = 0;
+                for (Map.Entry<Long, java.io.File> region : listRegions(dataDir).entrySet()) {
+                    for (Map.Entry<Long, java.io.File> cube : listCubes(region.getKey(), region.getValue()).entrySet()) {
+                        pendingOnly.remove(cube.getKey());
+                        if (readCube(cube.getKey(), cube.getValue(), count)) {
+                            batchKeys[count++] = cube.getKey();
+                        }
+                        if (count == BATCH_CUBES) {
+                            writeBatch(out, count);
+                            count = 0;
+                        }
+                    }
+                }
+                for (long key : pendingOnly) {
+                    if (readPending(key, count)) {
+                        batchKeys[count++] = key;
+                    }
+                    if (count == BATCH_CUBES) {
+                        writeBatch(out, count);
+                        count = 0;
+                    }
+                }
+                if (count > 0) {
+                    writeBatch(out, count);
+                }
+                writeBatch(out, 0);
+                out.force(true);
+            }
+            java.nio.file.Files.move(temp.toPath(), file.toPath(),
+                java.nio.file.StandardCopyOption.REPLACE_EXISTING,
+                java.nio.file.StandardCopyOption.ATOMIC_MOVE);
+        }
+        
+        /**
+         * Writes every cube in the batch file straight into the dimension's
+         * region directories. Cubes for which {@code inUse} returns true
+         * (loaded, or waiting in the journal) are skipped, since their next
+         * save would overwrite the imported data anyway.
+         */
+        public void importCubes(java.util.function.LongPredicate inUse) throws IOException {
+            try (java.nio.channels.FileChannel in = java.nio.channels.FileChannel.open(file.toPath(),
+                     java.nio.file.StandardOpenOption.READ)) {
+                java.nio.ByteBuffer header = java.nio.ByteBuffer.allocate(12);
+                readFully(in, header);
+                header.flip();
+                if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                    throw new IOException("Not a cube batch file: " + file);
+                }
+                header.getInt(); // Exported dimension; cubes may be restored into another
+                
+                // One directory sync per batch rather than an fsync per cube
+                List<java.io.File> files = new ArrayList<>(BATCH_CUBES);
+                List<java.nio.ByteBuffer[]> data = new ArrayList<>(BATCH_CUBES);
+                int count;
+                while ((count = readBatch(in)) > 0) {
+                    files.clear();
+                    data.clear();
+                    for (int i = 0; i < count; i++) {
+                        long key = batchKeys[i];
+                        if (inUse.test(key)) {
+                            skipped++;
+                            continue;
+                        }
+                        int x = CubeKeys.x(key), y = CubeKeys.y(key), z = CubeKeys.z(key);
+                        files.add(ChunkStorageSystem.getChunkFile(dimension, x, y, z));
+                        data.add(columns(count, i));
+                        PRISTINE_CUBES.invalidate(dimension, x, y, z);
+                    }
+                    ChunkStorageSystem.writeCubeFiles(files, data);
+                    cubes += files.size();
+                }
+            }
+        }
+        
+        // Copies a save still in the journal into the batch; false once it has been applied
+        private boolean readPending(long key, int slot) {
+            byte[] pending = ChunkStorageSystem.pendingPayload(dimension,
+                CubeKeys.x(key), CubeKeys.y(key), CubeKeys.z(key));
+            if (pending == null) return false;
+            
+            java.nio.ByteBuffer source = java.nio.ByteBuffer.wrap(pending);
+            for (java.nio.ByteBuffer column : columns(BATCH_CUBES, slot)) {
+                source.limit(source.position() + column.remaining());
+                column.put(source);
+            }
+            return true;
+        }
+        
+        private boolean readCube(long key, java.io.File cubeFile, int slot) throws IOException {
+            if (readPending(key, slot)) return true;
+            
+            java.nio.ByteBuffer[] target = columns(BATCH_CUBES, slot);
+            try (java.nio.channels.FileChannel channel = java.nio.channels.FileChannel.open(
+                     cubeFile.toPath(), java.nio.file.StandardOpenOption.READ)) {
+                long read = 0;
+                while (read < ChunkStorageSystem.CUBE_FILE_SIZE) {
+                    long n = channel.read(target);
+                    if (n < 0) break;
+                    read += n;
+                }
+                if (read < ChunkStorageSystem.CUBE_FILE_SIZE) {
+                    logger.warn("Skipping truncated cube file {} in export", cubeFile);
+                    skipped++;
+                    return false;
+                }
+                METRICS.add(MetricCounter.BYTES_READ, read);
+                return true;
+            }
+        }
+        
+        /**
+         * Slices of the raw batch holding one cube's blocks, metadata, light
+         * and biomes, in cube file order, for a batch of {@code count} cubes.
+         */
+        private java.nio.ByteBuffer[] columns(int count, int slot) {
+            int offset = count * 12;
+            java.nio.ByteBuffer[] columns = new java.nio.ByteBuffer[4];
+            for (int c = 0; c < 3; c++) {
+                columns[c] = java.nio.ByteBuffer.wrap(raw, offset + slot * 4096, 4096).slice();
+                offset += count * 4096;
+            }
+            columns[3] = java.nio.ByteBuffer.wrap(raw, offset + slot * 256, 256).slice();
+            return columns;
+        }
+        
+        private void writeBatch(java.nio.channels.FileChannel out, int count) throws IOException {
+            int rawLength = count * CUBE_BYTES;
+            
+            // Slots were filled at full-batch spacing; close the gaps of a short batch
+            if (count > 0 && count < BATCH_CUBES) {
+                for (int c = 0; c < 3; c++) {
+                    System.arraycopy(raw, BATCH_CUBES * (12 + c * 4096), raw, count * (12 + c * 4096), count * 4096);
+                }
+                System.arraycopy(raw, BATCH_CUBES * (12 + 3 * 4096), raw, count * (12 + 3 * 4096), count * 256);
+            }
+            java.nio.ByteBuffer coords = java.nio.ByteBuffer.wrap(raw, 0, count * 12);
+            for (int i = 0; i < count; i++) coords.putInt(CubeKeys.x(batchKeys[i]));
+            for (int i = 0; i < count; i++) coords.putInt(CubeKeys.y(batchKeys[i]));
+            for (int i = 0; i < count; i++) coords.putInt(CubeKeys.z(batchKeys[i]));
+            
+            java.util.zip.Deflater deflater = new java.util.zip.Deflater(java.util.zip.Deflater.BEST_SPEED);
+            int length;
+            try {
+                deflater.setInput(raw, 0, rawLength);
+                deflater.finish();
+                length = deflater.deflate(compressed);
+                if (!deflater.finished()) {
+                    throw new IOException("Cube batch did not fit its compression buffer");
+                }
+            } finally {
+                deflater.end();
+            }
+            
+            java.nio.ByteBuffer header = java.nio.ByteBuffer.allocate(12);
+            header.putInt(count).putInt(rawLength).putInt(length).flip();
+            writeFully(out, header, java.nio.ByteBuffer.wrap(compressed, 0, length));
+            METRICS.add(MetricCounter.BYTES_WRITTEN, 12 + length);
+            cubes += count;
+        }
+        
+        /** Reads and inflates the next batch, returning its cube count (0 at the end). */
+        private int readBatch(java.nio.channels.FileChannel in) throws IOException {
+            java.nio.ByteBuffer header = java.nio.ByteBuffer.allocate(12);
+            readFully(in, header);
+            header.flip();
+            int count = header.getInt();
+            int rawLength = header.getInt();
+            int length = header.getInt();
+            if (count < 0 || count > BATCH_CUBES || rawLength != count * CUBE_BYTES ||
+                length < 0 || length > compressed.length) {
+                throw new IOException("Corrupt cube batch header in " + file);
+            }
+            if (count == 0) return 0;
+            
+            readFully(in, java.nio.ByteBuffer.wrap(compressed, 0, length));
+            METRICS.add(MetricCounter.BYTES_READ, 12 + length);
+            
+            java.util.zip.Inflater inflater = new java.util.zip.Inflater();
+            try {
+                inflater.setInput(compressed, 0, length);
+                if (inflater.inflate(raw, 0, rawLength) != rawLength) {
+                    throw new IOException("Truncated cube batch in " + file);
+                }
+            } catch (java.util.zip.DataFormatException e) {
+                throw new IOException("Corrupt cube batch in " + file, e);
+            } finally {
+                inflater.end();
+            }
+            
+            java.nio.ByteBuffer coords = java.nio.ByteBuffer.wrap(raw, 0, count * 12);
+            int[] xs = new int[count];
+            int[] ys = new int[count];
+            for (int i = 0; i < count; i++) xs[i] = coords.getInt();
+            for (int i = 0; i < count; i++) ys[i] = coords.getInt();
+            for (int i = 0; i < count; i++) batchKeys[i] = CubeKeys.pack(xs[i], ys[i], coords.getInt());
+            return count;
+        }
+        
+        /** Region directories keyed (and so ordered) by the Morton key of their first cube. */
+        private static TreeMap<Long, java.io.File> listRegions(java.io.File dataDir) {
+            TreeMap<Long, java.io.File> regions = new TreeMap<>();
+            java.io.File[] dirs = dataDir.listFiles();
+            if (dirs == null) return regions;
+            
+            for (java.io.File dir : dirs) {
+                java.util.regex.Matcher m = REGION_NAME.matcher(dir.getName());
+                if (!dir.isDirectory() || !m.matches()) continue;
+                
+                int x = Integer.parseInt(m.group(1)) << 5;
+                int y = Integer.parseInt(m.group(2)) << 5;
+                int z = Integer.parseInt(m.group(3)) << 5;
+                if (CubeKeys.inRange(x, y, z)) {
+                    regions.put(CubeKeys.pack(x, y, z), dir);
+                }
+            }
+            return regions;
+        }
+        
+        private static TreeMap<Long, java.io.File> listCubes(long regionKey, java.io.File regionDir) {
+            TreeMap<Long, java.io.File> cubes = new TreeMap<>();
+            java.io.File[] files = regionDir.listFiles();
+            if (files == null) return cubes;
+            
+            int baseX = CubeKeys.x(regionKey);
+            int baseY = CubeKeys.y(regionKey);
+            int baseZ = CubeKeys.z(regionKey);
+            for (java.io.File cubeFile : files) {
+                java.util.regex.Matcher m = CUBE_NAME.matcher(cubeFile.getName());
+                if (m.matches()) {
+                    cubes.put(CubeKeys.pack(baseX + Integer.parseInt(m.group(1)),
+                        baseY + Integer.parseInt(m.group(2)), baseZ + Integer.parseInt(m.group(3))), cubeFile);
+                }
+            }
+            return cubes;
+        }
+        
+        private static void writeFully(java.nio.channels.FileChannel out,
+                                       java.nio.ByteBuffer... buffers) throws IOException {
+            java.nio.ByteBuffer last = buffers[buffers.length - 1];
+            while (last.hasRemaining()) {
+                out.write(buffers);
+            }
+        }
+        
+        private static void readFully(java.nio.channels.FileChannel in, java.nio.ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (in.read(buffer) < 0) {
+                    throw new java.io.EOFException("Unexpected end of cube batch file");
+                }
+            }
+        }
+    }
+    
+    // Pregeneration Jobs
+    public class PregenerationManager {
+        private static final String CHECKPOINT_FILE = "pregen.properties";
+        private static final int MAX_CONCURRENCY = 8;
+        private static final double TARGET_TICK_MS = 45.0;  // Back off before the server drops below 20 TPS
+        private static final long CHECKPOINT_INTERVAL_MS = 5000;
+        private static final long REPORT_INTERVAL_MS = 30000;
+        
+        private volatile PregenerationJob job;
+        private int concurrency = 1;
+        private long lastCheckpoint;
+        private long lastReport;
+        
+        public PregenerationJob getJob() {
+            return job;
+        }
+        
+        public boolean start(int dimension, int centerX, int centerY, int centerZ, int radius) {
+            if (job != null && !job.isFinished()) {
+                return false;
+            }
+            
+            job = new PregenerationJob(dimension, centerX, centerY, centerZ, radius, 0, 0);
+            concurrency = 1;
+            writeCheckpoint();
+            logger.info("Pregeneration started in dimension {}: {} cubes around ({}, {}, {}) radius {}",
+                dimension, job.total, centerX, centerY, centerZ, radius);
+            return true;
+        }
+        
+        public boolean pause() {
+            if (job == null || job.state != JobState.RUNNING) return false;
+            job.state = JobState.PAUSED;
+            writeCheckpoint();
+            return true;
+        }
+        
+        public boolean resume() {
+            if (job == null || job.state != JobState.PAUSED) return false;
+            job.state = JobState.RUNNING;
+            job.resetRate();
+            return true;
+        }
+        
+        public boolean cancel() {
+            if (job == null || job.isFinished()) return false;
+            job.state = JobState.CANCELLED;
+            deleteCheckpoint();
+            return true;
+        }
+        
+        /**
+         * Called once per server tick. Tops up in-flight work to the current
+         * concurrency limit, which grows while the server has tick time to
+         * spare and halves as soon as it does not.
+         */
+        public void tick(MinecraftServer server) {
+            PregenerationJob current = job;
+            if (current == null || current.state != JobState.RUNNING) return;
+            
+            long now = System.currentTimeMillis();
+            current.sampleRate(now);
+            
+            double tickMs = averageTickMillis(server);
+            if (tickMs > TARGET_TICK_MS) {
+                concurrency = Math.max(1, concurrency / 2);
+            } else if (tickMs < TARGET_TICK_MS * 0.7 && concurrency < MAX_CONCURRENCY) {
+                concurrency++;
+            }
+            
+            while (current.inFlight.size() < concurrency && current.hasNext()) {
+                submit(current);
+            }
+            
+            if (!current.hasNext() && current.inFlight.isEmpty()) {
+                current.state = JobState.DONE;
+                deleteCheckpoint();
+                logger.info("Pregeneration finished: {} cubes ({} generated) in {}s",
+                    current.completed.get(), current.generated.get(),
+                    (now - current.startedAt) / 1000);
+                return;
+            }
+            
+            if (now - lastCheckpoint > CHECKPOINT_INTERVAL_MS) {
+                writeCheckpoint();
+            }
+            if (now - lastReport > REPORT_INTERVAL_MS) {
+                lastReport = now;
+                logger.info("Pregeneration: {}", current.describeProgress());
+            }
+        }
+        
+        private void submit(PregenerationJob current) {
+            final long ordinal = current.nextOrdinal();
+            final int[] pos = current.nextPosition();
+            final ChunkLoadingManager.DimensionPartition partition =
+                chunkLoadingManager.partition(current.dimension);
+            current.inFlight.add(ordinal);
+            
+            partition.submitBackground(() -> {
+                try {
+                    if (current.state != JobState.CANCELLED &&
+                        partition.generateToDisk(pos[0], pos[1], pos[2])) {
+                        current.generated.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    current.completed.incrementAndGet();
+                    current.inFlight.remove(ordinal);
+                }
+            });
+        }
+        
+        private double averageTickMillis(MinecraftServer server) {
+            long[] times = server.tickTimeArray;
+            long sum = 0;
+            for (long time : times) {
+                sum += time;
+            }
+            return sum / (double) times.length / 1.0E6;
+        }
+        
+        public void resumeFromCheckpoint() {
+            java.io.File file = getCheckpointFile();
+            if (file == null || !file.exists()) return;
+            
+            Properties props = new Properties();
+            try (java.io.InputStream in = new java.io.FileInputStream(file)) {
+                props.load(in);
+                job = new PregenerationJob(
+                    Integer.parseInt(props.getProperty("dimension", "0")),
+                    Integer.parseInt(props.getProperty("centerX")),
+                    Integer.parseInt(props.getProperty("centerY")),
+                    Integer.parseInt(props.getProperty("centerZ")),
+                    Integer.parseInt(props.getProperty("radius")),
+                    Long.parseLong(props.getProperty("ordinal")),
+                    Long.parseLong(props.getProperty("generated", "0")));
+                job.state = JobState.valueOf(props.getProperty("state", "RUNNING"));
+                concurrency = 1;
+                logger.info("Resuming pregeneration at cube {} of {}", job.resumeOrdinal, job.total);
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Ignoring unreadable pregeneration checkpoint {}: {}", file, e);
+            }
+        }
+        
+        public void shutdown() {
+            if (job != null && !job.isFinished()) {
+                writeCheckpoint();
+            }
+        }
+        
+        /**
+         * Persists the lowest ordinal that is not yet known to be complete.
+         * Cubes after it may already be on disk; those are skipped cheaply by
+         * {@link ChunkLoadingManager.DimensionPartition#generateToDisk} when the job resumes.
+         */
+        private void writeCheckpoint() {
+            PregenerationJob current = job;
+            java.io.File file = getCheckpointFile();
+            if (current == null || file == null) return;
+            lastCheckpoint = System.currentTimeMillis();
+            
+            Properties props = new Properties();
+            props.setProperty("dimension", Integer.toString(current.dimension));
+            props.setProperty("centerX", Integer.toString(current.centerX));
+            props.setProperty("centerY", Integer.toString(current.centerY));
+            props.setProperty("centerZ", Integer.toString(current.centerZ));
+            props.setProperty("radius", Integer.toString(current.radius));
+            props.setProperty("ordinal", Long.toString(current.checkpointOrdinal()));
+            props.setProperty("generated", Long.toString(current.generated.get()));
+            props.setProperty("state", current.state.name());
+            
+            // Write beside the real file and rename so a crash never leaves half a checkpoint
+            java.io.File temp = new java.io.File(file.getPath() + ".tmp");
+            try (java.io.OutputStream out = new java.io.FileOutputStream(temp)) {
+                props.store(out, "CubicChunk pregeneration checkpoint");
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+            try {
+                java.nio.file.Files.move(temp.toPath(), file.toPath(),
+                    java.nio.file.StandardCopyOption.REPLACE_EXISTING,
+                    java.nio.file.StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        
+        private void deleteCheckpoint() {
+            java.io.File file = getCheckpointFile();
+            if (file != null && file.exists()) {
+                file.delete();
+            }
+        }
+        
+        private java.io.File getCheckpointFile() {
+            java.io.File root = net.minecraftforge.common.DimensionManager.getCurrentSaveRootDirectory();
+            if (root == null) return null;
+            java.io.File dir = new java.io.File(root, ChunkStorageSystem.CHUNK_DATA_FOLDER);
+            if (!dir.exists()) {
+                dir.mkdirs();
+            }
+            return new java.io.File(dir, CHECKPOINT_FILE);
+        }
+    }
+    
+    public enum JobState {
+        RUNNING, PAUSED, CANCELLED, DONE
+    }
+    
+    /**
+     * A single pregeneration job. Cubes are visited in shells of increasing
+     * distance from the centre so that consecutive work stays close together
+     * on disk and nearby cubes become available first.
+     */
+    public static class PregenerationJob {
+        public final int dimension;
+        public final int centerX, centerY, centerZ, radius;
+        public final long total;
+        private final long resumeOrdinal;
+        private final long startedAt = System.currentTimeMillis();
+        private final ConcurrentSkipListSet<Long> inFlight = new ConcurrentSkipListSet<>();
+        private final AtomicLong completed;
+        private final AtomicLong generated;
+        private volatile JobState state = JobState.RUNNING;
+        
+        // Spiral cursor: the current shell and the index of the next cube in it
+        private long ordinal;
+        private int shell;
+        private int shellIndex;
+        
+        // Rate tracking (cubes per second, exponentially smoothed)
+        private long lastSampleTime;
+        private long lastSampleCount;
+        private double rate;
+        
+        public PregenerationJob(int dimension, int centerX, int centerY, int centerZ, int radius,
+                                long resumeOrdinal, long generated) {
+            this.dimension = dimension;
+            this.centerX = centerX;
+            this.centerY = centerY;
+            this.centerZ = centerZ;
+            this.radius = radius;
+            long side = 2L * radius + 1;
+            this.total = side * side * side;
+            this.resumeOrdinal = Math.min(resumeOrdinal, total);
+            this.completed = new AtomicLong(this.resumeOrdinal);
+            this.generated = new AtomicLong(generated);
+            
+            // Seek straight to the resume point: shells below s fill a cube of side 2s - 1
+            int s = (int) ((Math.cbrt(this.resumeOrdinal) + 1) / 2);
+            while (s > 0 && shellStart(s) > this.resumeOrdinal) s--;
+            while (shellStart(s + 1) <= this.resumeOrdinal) s++;
+            this.shell = s;
+            this.shellIndex = (int) (this.resumeOrdinal - shellStart(s));
+            this.ordinal = this.resumeOrdinal;
+            resetRate();
+        }
+        
+        public JobState getState() {
+            return state;
+        }
+        
+        public boolean isFinished() {
+            return state == JobState.DONE || state == JobState.CANCELLED;
+        }
+        
+        boolean hasNext() {
+            return ordinal < total;
+        }
+        
+        long nextOrdinal() {
+            return ordinal++;
+        }
+        
+        long checkpointOrdinal() {
+            Long lowest = inFlight.isEmpty() ? null : inFlight.first();
+            return lowest != null ? lowest : ordinal;
+        }
+        
+        int[] nextPosition() {
+            if (shellIndex >= shellStart(shell + 1) - shellStart(shell)) {
+                shell++;
+                shellIndex = 0;
+            }
+            int[] pos = shellOffset(shell, shellIndex++);
+            pos[0] += centerX;
+            pos[1] += centerY;
+            pos[2] += centerZ;
+            return pos;
+        }
+        
+        /** Cubes in the shells closer than {@code s}. */
+        static long shellStart(int s) {
+            long side = 2L * s - 1;
+            return s == 0 ? 0 : side * side * side;
+        }
+        
+        /**
+         * Offset (dx, dy, dz) of cube {@code k} in the shell at Chebyshev
+         * distance {@code s}. Full caps are walked in serpentine rows and the
+         * side layers as a ring, so each step moves to an adjacent cube.
+         */
+        static int[] shellOffset(int s, int k) {
+            if (s == 0) return new int[] {0, 0, 0};
+            
+            int side = 2 * s + 1;
+            int ring = 8 * s;
+            if (k < side * side) return capOffset(s, -s, k);
+            k -= side * side;
+            if (k >= (side - 2) * ring) return capOffset(s, s, k - (side - 2) * ring);
+            
+            int dy = -s + 1 + k / ring;
+            int edge = (k % ring) / (2 * s);
+            int along = (k % ring) % (2 * s);
+            switch (edge) {
+                case 0: return new int[] {-s + along, dy, -s};
+                case 1: return new int[] {s, dy, -s + along};
+                case 2: return new int[] {s - along, dy, s};
+                default: return new int[] {-s, dy, s - along};
+            }
+        }
+        
+        private static int[] capOffset(int s, int dy, int k) {
+            int side = 2 * s + 1;
+            int row = k / side;
+            int step = k % side;
+            return new int[] {(row & 1) == 0 ? -s + step : s - step, dy, -s + row};
+        }
+        
+        void resetRate() {
+            lastSampleTime = System.currentTimeMillis();
+            lastSampleCount = completed.get();
+        }
+        
+        void sampleRate(long now) {
+            long elapsed = now - lastSampleTime;
+            if (elapsed < 1000) return;
+            
+            long count = completed.get();
+            double instant = (count - lastSampleCount) * 1000.0 / elapsed;
+            rate = rate == 0 ? instant : rate * 0.8 + instant * 0.2;
+            lastSampleTime = now;
+            lastSampleCount = count;
+        }
+        
+        public double getRate() {
+            return rate;
+        }
+        
+        public long getEtaSeconds() {
+            return rate > 0 ? (long) ((total - completed.get()) / rate) : -1;
+        }
+        
+        public String describeProgress() {
+            long done = completed.get();
+            long eta = getEtaSeconds();
+            return String.format("%d/%d cubes (%.1f%%), %d generated, %.1f cubes/s, ETA %s",
+                done, total, done * 100.0 / total, generated.get(), rate,
+                eta < 0 ? "unknown" : String.format("%d:%02d:%02d", eta / 3600, (eta / 60) % 60, eta % 60));
+        }
+    }
+    
+    // Metrics
+    public enum MetricCounter {
+        LOAD_REQUESTS, ALREADY_LOADED, DISK_HITS, GENERATED, SAVED, BYTES_READ, BYTES_WRITTEN,
+        JOURNAL_COMMITS, PUBLISHED, TICK_OVERRUNS, PREFETCHED, PREFETCH_HITS, PREFETCH_MISSES,
+        ARRAYS_ALLOCATED, ARRAYS_REUSED, ARRAY_LEAKS, PRISTINE_HITS
+    }
+    
+    public enum MetricTimer {
+        LOAD, GENERATE, SAVE, MESH_REBUILD
+    }
+    
+    /**
+     * Always-on counters and latency histograms for the cube pipeline.
+     * Recording is a LongAdder or AtomicLongArray increment; the once-per-
+     * second sampler keeps cumulative snapshots so any window up to
+     * {@link #WINDOW_SECONDS} can be reported as a difference of two.
+     */
+    public static class CubicChunkMetrics {
+        public static final int WINDOW_SECONDS = 300;
+        
+        private final java.util.concurrent.atomic.LongAdder[] counters =
+            new java.util.concurrent.atomic.LongAdder[MetricCounter.values().length];
+        private final LatencyRecorder[] timers = new LatencyRecorder[MetricTimer.values().length];
+        
+        private final MetricsSnapshot[] history = new MetricsSnapshot[WINDOW_SECONDS + 1];
+        private int historyHead = -1;
+        private long lastSample;
+        
+        public CubicChunkMetrics() {
+            for (int i = 0; i < counters.length; i++) {
+                counters[i] = new java.util.concurrent.atomic.LongAdder();
+            }
+            for (int i = 0; i < timers.length; i++) {
+                timers[i] = new LatencyRecorder();
+            }
+        }
+        
+        public void increment(MetricCounter counter) {
+            counters[counter.ordinal()].increment();
+        }
+        
+        public void add(MetricCounter counter, long amount) {
+            counters[counter.ordinal()].add(amount);
+        }
+        
+        public long get(MetricCounter counter) {
+            return counters[counter.ordinal()].sum();
+        }
+        
+        public void recordNanos(MetricTimer timer, long nanos) {
+            timers[timer.ordinal()].recordNanos(nanos);
+        }
+        
+        public LatencyRecorder timer(MetricTimer timer) {
+            return timers[timer.ordinal()];
+        }
+        
+        public MetricsSnapshot snapshot() {
+            long[] counts = new long[counters.length];
+            for (int i = 0; i < counters.length; i++) {
+                counts[i] = counters[i].sum();
+            }
+            long[][] buckets = new long[timers.length][];
+            for (int i = 0; i < timers.length; i++) {
+                buckets[i] = timers[i].snapshot();
+            }
+            return new MetricsSnapshot(System.currentTimeMillis(), counts, buckets);
+        }
+        
+        /** Called from the server tick; takes at most one snapshot per second. */
+        public synchronized void sample(long now) {
+            if (now - lastSample < 1000) return;
+            lastSample = now;
+            historyHead = (historyHead + 1) % history.length;
+            history[historyHead] = snapshot();
+        }
+        
+        /** Activity over roughly the last {@code seconds} seconds. */
+        public synchronized MetricsSnapshot window(int seconds) {
+            MetricsSnapshot now = snapshot();
+            if (historyHead < 0) return now;
+            
+            int back = Math.min(Math.max(seconds, 1), WINDOW_SECONDS);
+            int index = Math.floorMod(historyHead - back + 1, history.length);
+            MetricsSnapshot then = history[index];
+            if (then == null) {
+                // Not enough history yet; use the oldest snapshot we have
+                index = (historyHead + 1) % history.length;
+                while (history[index] == null) {
+                    index = (index + 1) % history.length;
+                }
+                then = history[index];
+            }
+            return now.minus(then);
+        }
+    }
+    
+    public static class MetricsSnapshot {
+        public final long timestamp;
+        public final long durationMillis;
+        private final long[] counters;
+        private final long[][] buckets;
+        
+        MetricsSnapshot(long timestamp, long[] counters, long[][] buckets) {
+            this(timestamp, 0, counters, buckets);
+        }
+        
+        private MetricsSnapshot(long timestamp, long durationMillis, long[] counters, long[][] buckets) {
+            this.timestamp = timestamp;
+            this.durationMillis = durationMillis;
+            this.counters = counters;
+            this.buckets = buckets;
+        }
+        
+        MetricsSnapshot minus(MetricsSnapshot earlier) {
+            long[] counts = new long[counters.length];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = counters[i] - earlier.counters[i];
+            }
+            long[][] deltas = new long[buckets.length][LatencyRecorder.BUCKETS];
+            for (int t = 0; t < buckets.length; t++) {
+                for (int b = 0; b < LatencyRecorder.BUCKETS; b++) {
+                    deltas[t][b] = buckets[t][b] - earlier.buckets[t][b];
+                }
+            }
+            return new MetricsSnapshot(timestamp, timestamp - earlier.timestamp, counts, deltas);
+        }
+        
+        public long get(MetricCounter counter) {
+            return counters[counter.ordinal()];
+        }
+        
+        public double perSecond(MetricCounter counter) {
+            return durationMillis > 0 ? get(counter) * 1000.0 / durationMillis : 0;
+        }
+        
+        public long count(MetricTimer timer) {
+            long total = 0;
+            for (long c : buckets[timer.ordinal()]) {
+                total += c;
+            }
+            return total;
+        }
+        
+        /** Upper bound in microseconds of the bucket holding the given percentile. */
+        public long percentileMicros(MetricTimer timer, double percentile) {
+            return LatencyRecorder.percentile(buckets[timer.ordinal()], percentile);
+        }
+        
+        /** Share of load requests for cubes that were loaded already. */
+        public double alreadyLoadedRate() {
+            long requests = get(MetricCounter.LOAD_REQUESTS);
+            return requests > 0 ? get(MetricCounter.ALREADY_LOADED) / (double) requests : 0;
+        }
+        
+        /** Share of resolved speculative cubes that a player went on to view. */
+        public double prefetchAccuracy() {
+            long resolved = get(MetricCounter.PREFETCH_HITS) + get(MetricCounter.PREFETCH_MISSES);
+            return resolved > 0 ? get(MetricCounter.PREFETCH_HITS) / (double) resolved : 0;
+        }
+    }
+    
+    /**
+     * Log-linear latency histogram in the style of HdrHistogram: values are
+     * bucketed by power of two with eight linear sub-buckets each, giving
+     * 12.5% worst-case error over the full long range in 488 counters.
+     */
+    public static class LatencyRecorder {
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+        
+        private final java.util.concurrent.atomic.AtomicLongArray counts =
+            new java.util.concurrent.atomic.AtomicLongArray(BUCKETS);
+        
+        public void recordNanos(long nanos) {
+            counts.incrementAndGet(bucketOf(Math.max(0, nanos / 1000)));
+        }
+        
+        long[] snapshot() {
+            long[] copy = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                copy[i] = counts.get(i);
+            }
+            return copy;
+        }
+        
+        static int bucketOf(long value) {
+            if (value < SUB_BUCKETS) return (int) value;
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+            int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+            return (shift + 1) * SUB_BUCKETS + sub;
+        }
+        
+        static long bucketUpperBound(int bucket) {
+            if (bucket < SUB_BUCKETS) return bucket;
+            int shift = bucket / SUB_BUCKETS - 1;
+            int sub = bucket % SUB_BUCKETS;
+            return ((long) (SUB_BUCKETS + sub + 1) << shift) - 1;
+        }
+        
+        static long percentile(long[] buckets, double percentile) {
+            long total = 0;
+            for (long c : buckets) {
+                total += c;
+            }
+            if (total == 0) return 0;
+            
+            long target = (long) Math.ceil(total * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= target) {
+                    return bucketUpperBound(i);
+                }
+            }
+            return bucketUpperBound(buckets.length - 1);
+        }
+    }
+    
+    /** Management view of the cube subsystem, registered as com.cubicchunk:type=Stats. */
+    public interface CubicChunkStatsMXBean {
+        int getLoadedCubes();
+        int getLoadQueueDepth();
+        int getUnloadQueueDepth();
+        long getLoadRequests();
+        double getAlreadyLoadedRate();
+        long getBytesRead();
+        long getBytesWritten();
+        long getLoadP50Micros();
+        long getLoadP99Micros();
+        long getGenerateP50Micros();
+        long getGenerateP99Micros();
+        long getSaveP50Micros();
+        long getSaveP99Micros();
+        long getMeshRebuildP99Micros();
+        int getPublishBacklog();
+        long getTickOverruns();
+        long getPrefetched();
+        double getPrefetchAccuracy();
+        long getPooledBytes();
+        long getArrayLeaks();
+        Map<String, Long> getEstimatedBytesByStorageMode();
+        Map<String, Long> getCubesByStorageMode();
+    }
+    
+    public class CubicChunkStats implements CubicChunkStatsMXBean {
+        @Override
+        public int getLoadedCubes() {
+            return chunkLoadingManager.getLoadedCount();
+        }
+        
+        @Override
+        public int getLoadQueueDepth() {
+            int depth = 0;
+            for (ChunkLoadingManager.DimensionPartition partition : chunkLoadingManager.getPartitions()) {
+                depth += partition.getLoadQueueSize();
+            }
+            return depth;
+        }
+        
+        @Override
+        public int getUnloadQueueDepth() {
+            int depth = 0;
+            for (ChunkLoadingManager.DimensionPartition partition : chunkLoadingManager.getPartitions()) {
+                depth += partition.getUnloadQueueSize();
+            }
+            return depth;
         }
         
-        public void stop() {
-            running = false;
-            if (managerThread != null) {
-                managerThread.interrupt();
-            }
+        @Override
+        public int getPublishBacklog() {
+            return mainThread.getBacklog();
         }
         
-        public void requestChunkLoad(int x, int y, int z) {
-            long key = getChunkKey(x, y, z);
-            chunksToLoad.add(key);
+        @Override
+        public long getTickOverruns() {
+            return METRICS.get(MetricCounter.TICK_OVERRUNS);
         }
         
-        public void requestChunkUnload(int x, int y, int z) {
-            long key = getChunkKey(x, y, z);
-            chunksToUnload.add(key);
+        @Override
+        public long getPrefetched() {
+            return METRICS.get(MetricCounter.PREFETCHED);
         }
         
-        public void updatePlayerView(EntityPlayer player, int radius) {
-            BlockPos pos = player.getPosition();
-            int chunkX = pos.getX() >> 4;
-            int chunkY = pos.getY() >> 4;
-            int chunkZ = pos.getZ() >> 4;
-            
-            Set<Long> neededChunks = new HashSet<>();
-            
-            // Calculate chunks within radius (including vertical)
-            for (int dx = -radius; dx <= radius; dx++) {
-                for (int dy = -radius; dy <= radius; dy++) {
-                    for (int dz = -radius; dz <= radius; dz++) {
-                        long key = getChunkKey(chunkX + dx, chunkY + dy, chunkZ + dz);
-                        neededChunks.add(key);
-                    }
-                }
-            }
-            
-            // Unload chunks outside radius
-            synchronized (activeChunks) {
-                for (Long chunkKey : activeChunks) {
-                    if (!neededChunks.contains(chunkKey)) {
-                        requestChunkUnloadFromKey(chunkKey);
-                    }
-                }
-                
-                // Load new chunks
-                for (Long chunkKey : neededChunks) {
-                    if (!activeChunks.contains(chunkKey)) {
-                        requestChunkLoadFromKey(chunkKey);
-                    }
-                }
-                
-                activeChunks.clear();
-                activeChunks.addAll(neededChunks);
-            }
+        @Override
+        public double getPrefetchAccuracy() {
+            return METRICS.snapshot().prefetchAccuracy();
         }
         
         @Override
-        public void run() {
-            while (running) {
-                try {
-                    // Process unload requests
-                    for (Long chunkKey : chunksToUnload) {
-                        unloadChunk(chunkKey);
-                    }
-                    chunksToUnload.clear();
-                    
-                    // Process load requests
-                    for (Long chunkKey : chunksToLoad) {
-                        loadChunk(chunkKey);
-                    }
-                    chunksToLoad.clear();
-                    
-                    // Save dirty chunks periodically
-                    saveDirtyChunks();
-                    
-                    Thread.sleep(50); // 20Hz
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    break;
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
+        public long getPooledBytes() {
+            return CUBE_ARRAYS.getRetainedBytes();
         }
         
-        private void loadChunk(long chunkKey) {
-            if (loadedChunks.containsKey(chunkKey)) {
-                return; // Already loaded
-            }
-            
-            int x = (int)(chunkKey & 0xFFFFFFFFL);
-            int z = (int)((chunkKey >> 32) & 0xFFFFFFFFL);
-            int y = (int)(chunkKey >> 32);
-            
-            // Load from storage or generate
-            CubicChunk chunk = ChunkStorageSystem.loadChunk(worldForLoading(), x, y, z);
-            if (chunk == null) {
-                chunk = generateChunk(x, y, z);
-            }
-            
-            if (chunk != null) {
-                loadedChunks.put(chunkKey, chunk);
-            }
+        @Override
+        public long getArrayLeaks() {
+            return METRICS.get(MetricCounter.ARRAY_LEAKS);
         }
         
-        private void unloadChunk(long chunkKey) {
-            CubicChunk chunk = loadedChunks.remove(chunkKey);
-            if (chunk != null && chunk.isDirty()) {
-                ChunkStorageSystem.saveChunk(chunk);
-            }
+        @Override
+        public long getLoadRequests() {
+            return METRICS.get(MetricCounter.LOAD_REQUESTS);
         }
         
-        private CubicChunk generateChunk(int x, int y, int z) {
-            World world = worldForLoading();
-            CubicChunk chunk = new CubicChunk(world, x, y, z);
-            
-            // Generate terrain based on chunk Y level
-            if (y >= 0) {
-                generateSurfaceChunk(chunk);
-            } else {
-                generateUndergroundChunk(chunk);
-            }
-            
-            return chunk;
+        @Override
+        public double getAlreadyLoadedRate() {
+            return METRICS.snapshot().alreadyLoadedRate();
         }
         
-        private void generateSurfaceChunk(CubicChunk chunk) {
-            // Simple terrain generation
-            for (int localX = 0; localX < 16; localX++) {
-                for (int localZ = 0; localZ < 16; localZ++) {
-                    int worldX = (chunk.x << 4) + localX;
-                    int worldZ = (chunk.z << 4) + localZ;
-                    
-                    // Heightmap-based generation
-                    int height = 64 + (int)(Math.sin(worldX * 0.01) * 10) + 
-                                       (int)(Math.cos(worldZ * 0.01) * 10);
-                    
-                    int chunkBaseY = chunk.y << 4;
-                    
-                    for (int localY = 0; localY < 16; localY++) {
-                        int worldY = chunkBaseY + localY;
-                        
-                        if (worldY <= height - 4) {
-                            chunk.setBlockID((byte)localX, (byte)localY, (byte)localZ, (byte)1); // Stone
-                        } else if (worldY <= height) {
-                            chunk.setBlockID((byte)localX, (byte)localY, (byte)localZ, (byte)3); // Dirt
-                        } else if (worldY == height + 1) {
-                            chunk.setBlockID((byte)localX, (byte)localY, (byte)localZ, (byte)2); // Grass
-                        }
-                    }
-                }
-            }
+        @Override
+        public long getBytesRead() {
+            return METRICS.get(MetricCounter.BYTES_READ);
         }
         
-        private void generateUndergroundChunk(CubicChunk chunk) {
-            // Cave and ore generation
-            for (int localX = 0; localX < 16; localX++) {
-                for (int localY = 0; localY < 16; localY++) {
-                    for (int localZ = 0; localZ < 16; localZ++) {
-                        int worldX = (chunk.x << 4) + localX;
-                        int worldY = (chunk.y << 4) + localY;
-                        int worldZ = (chunk.z << 4) + localZ;
-                        
-                        // Perlin noise for caves
-                        double noise = perlin3D(worldX * 0.1, worldY * 0.1, worldZ * 0.1);
-                        
-                        if (noise > 0.3) {
-                            chunk.setBlockID((byte)localX, (byte)localY, (byte)localZ, (byte)0); // Air (cave)
-                        } else {
-                            // Stone with occasional ores
-                            double oreNoise = perlin3D(worldX * 0.05, worldY * 0.05, worldZ * 0.05);
-                            if (oreNoise > 0.8) {
-                                chunk.setBlockID((byte)localX, (byte)localY, (byte)localZ, (byte)15); // Iron ore
-                            } else if (oreNoise > 0.9) {
-                                chunk.setBlockID((byte)localX, (byte)localY, (byte)localZ, (byte)14); // Gold ore
-                            } else if (oreNoise > 0.95) {
-                                chunk.setBlockID((byte)localX, (byte)localY, (byte)localZ, (byte)56); // Diamond ore
-                            } else {
-                                chunk.setBlockID((byte)localX, (byte)localY, (byte)localZ, (byte)1); // Stone
-                            }
-                        }
-                    }
-                }
-            }
+        @Override
+        public long getBytesWritten() {
+            return METRICS.get(MetricCounter.BYTES_WRITTEN);
         }
         
-        private double perlin3D(double x, double y, double z) {
-            // Simplified 3D Perlin noise
-            return (Math.sin(x) * Math.cos(y) * Math.sin(z) + 1) / 2;
+        @Override
+        public long getLoadP50Micros() {
+            return percentile(MetricTimer.LOAD, 50);
         }
         
-        private void saveDirtyChunks() {
-            for (CubicChunk chunk : loadedChunks.values()) {
-                if (chunk.isDirty() && 
-                    System.currentTimeMillis() - chunk.getLastAccessed() > 30000) {
-                    ChunkStorageSystem.saveChunk(chunk);
-                    chunk.markClean();
-                }
-            }
+        @Override
+        public long getLoadP99Micros() {
+            return percentile(MetricTimer.LOAD, 99);
         }
         
-        private World worldForLoading() {
-            // Get the primary world for chunk generation
-            MinecraftServer server = net.minecraftforge.fml.common.FMLCommonHandler.instance()
-                .getMinecraftServerInstance();
-            return server != null ? server.getWorld(0) : null;
+        @Override
+        public long getGenerateP50Micros() {
+            return percentile(MetricTimer.GENERATE, 50);
         }
         
-        private long getChunkKey(int x, int y, int z) {
-            return ChunkPos.asLong(x, z) | ((long) y << 32);
+        @Override
+        public long getGenerateP99Micros() {
+            return percentile(MetricTimer.GENERATE, 99);
         }
         
-        private void requestChunkLoadFromKey(long chunkKey) {
-            chunksToLoad.add(chunkKey);
+        @Override
+        public long getSaveP50Micros() {
+            return percentile(MetricTimer.SAVE, 50);
         }
         
-        private void requestChunkUnloadFromKey(long chunkKey) {
-            chunksToUnload.add(chunkKey);
+        @Override
+        public long getSaveP99Micros() {
+            return percentile(MetricTimer.SAVE, 99);
         }
-    }
-    
-    // Chunk Storage System
-    public static class ChunkStorageSystem {
-        private static final String CHUNK_DATA_FOLDER = "cubicchunks";
         
-        public static void initialize() {
-            // Create data directory
-            java.io.File dir = new java.io.File(
-                net.minecraftforge.common.DimensionManager.getCurrentSaveRootDirectory(),
-                CHUNK_DATA_FOLDER);
-            if (!dir.exists()) {
-                dir.mkdirs();
-            }
+        @Override
+        public long getMeshRebuildP99Micros() {
+            return percentile(MetricTimer.MESH_REBUILD, 99);
         }
         
-        public static CubicChunk loadChunk(World world, int x, int y, int z) {
-            java.io.File chunkFile = getChunkFile(world, x, y, z);
-            
-            if (!chunkFile.exists()) {
-                return null;
-            }
-            
-            try (java.io.DataInputStream dis = new java.io.DataInputStream(
-                new java.io.FileInputStream(chunkFile))) {
-                
-                CubicChunk chunk = new CubicChunk(world, x, y, z);
-                
-                // Read block data
-                byte[] blocks = new byte[4096];
-                dis.readFully(blocks);
-                
-                // Read metadata
-                byte[] metas = new byte[4096];
-                dis.readFully(metas);
-                
-                // Read light data
-                byte[] lights = new byte[4096];
-                dis.readFully(lights);
-                
-                // Read biome data
-                byte[] biomes = new byte[256];
-                dis.readFully(biomes);
-                
-                chunk.loadData(blocks, metas, lights, biomes);
-                return chunk;
-                
-            } catch (java.io.IOException e) {
-                e.printStackTrace();
-                return null;
+        @Override
+        public Map<String, Long> getEstimatedBytesByStorageMode() {
+            Map<String, Long> bytes = new TreeMap<>();
+            for (ChunkLoadingManager.DimensionPartition partition : chunkLoadingManager.getPartitions()) {
+                for (CubicChunk chunk : partition.loadedChunks.values()) {
+                    bytes.merge(chunk.getStorageMode().name(), chunk.getEstimatedBytes(), Long::sum);
+                }
             }
+            return bytes;
         }
         
-        public static void saveChunk(CubicChunk chunk) {
-            java.io.File chunkFile = getChunkFile(chunk.world, chunk.x, chunk.y, chunk.z);
-            
-            try (java.io.DataOutputStream dos = new java.io.DataOutputStream(
-                new java.io.FileOutputStream(chunkFile))) {
-                
-                // Write block data
-                dos.write(chunk.getBlockData());
-                
-                // Write metadata
-                dos.write(chunk.getMetadata());
-                
-                // Write light data
-                dos.write(chunk.getLightData());
-                
-                // Write biome data
-                dos.write(chunk.getBiomeData());
-                
-            } catch (java.io.IOException e) {
-                e.printStackTrace();
+        @Override
+        public Map<String, Long> getCubesByStorageMode() {
+            Map<String, Long> cubes = new TreeMap<>();
+            for (ChunkLoadingManager.DimensionPartition partition : chunkLoadingManager.getPartitions()) {
+                for (CubicChunk chunk : partition.loadedChunks.values()) {
+                    cubes.merge(chunk.getStorageMode().name(), 1L, Long::sum);
+                }
             }
+            return cubes;
         }
         
-        private static java.io.File getChunkFile(World world, int x, int y, int z) {
-            java.io.File worldDir = new java.io.File(
-                net.minecraftforge.common.DimensionManager.getWorldDirectory(world.provider.getDimension()),
-                CHUNK_DATA_FOLDER);
-            
-            // Organize by region (like vanilla)
-            int regionX = x >> 5;
-            int regionY = y >> 5;
-            int regionZ = z >> 5;
-            
-            java.io.File regionDir = new java.io.File(worldDir, 
-                String.format("region_%d_%d_%d", regionX, regionY, regionZ));
-            if (!regionDir.exists()) {
-                regionDir.mkdirs();
-            }
-            
-            return new java.io.File(regionDir, 
-                String.format("chunk_%d_%d_%d.dat", x & 31, y & 31, z & 31));
+        private long percentile(MetricTimer timer, double percentile) {
+            return LatencyRecorder.percentile(METRICS.timer(timer).snapshot(), percentile);
         }
     }
     
@@ -667,18 +4330,15 @@ public class CubicChunkMod {
             int centerY = pos.getY() >> 4;
             int centerZ = pos.getZ() >> 4;
             
-            // Mark all chunks for possible removal
-            Set<Long> chunksToKeep = new HashSet<>();
+            // Only half the view distance vertically (performance optimization)
+            int verticalDistance = viewDistance / 2;
             
             // Determine which chunks should be visible
             for (int dx = -viewDistance; dx <= viewDistance; dx++) {
-                for (int dy = -viewDistance; dy <= viewDistance; dy++) {
+                for (int dy = -verticalDistance; dy <= verticalDistance; dy++) {
                     for (int dz = -viewDistance; dz <= viewDistance; dz++) {
-                        // Skip if too far vertically (performance optimization)
-                        if (Math.abs(dy) > viewDistance / 2) continue;
-                        
+                        if (!CubeKeys.inRange(centerX + dx, centerY + dy, centerZ + dz)) continue;
                         long chunkKey = getChunkKey(centerX + dx, centerY + dy, centerZ + dz);
-                        chunksToKeep.add(chunkKey);
                         
                         if (!renderChunks.containsKey(chunkKey)) {
                             // Need to create new render chunk
@@ -689,8 +4349,14 @@ public class CubicChunkMod {
                 }
             }
             
-            // Remove chunks that are no longer visible
-            renderChunks.keySet().removeIf(key -> !chunksToKeep.contains(key));
+            // Remove chunks that are no longer visible: a box test on the keys
+            long min = getChunkKey(Math.max(centerX - viewDistance, CubeKeys.MIN_COORD),
+                Math.max(centerY - verticalDistance, CubeKeys.MIN_COORD),
+                Math.max(centerZ - viewDistance, CubeKeys.MIN_COORD));
+            long max = getChunkKey(Math.min(centerX + viewDistance, CubeKeys.MAX_COORD),
+                Math.min(centerY + verticalDistance, CubeKeys.MAX_COORD),
+                Math.min(centerZ + viewDistance, CubeKeys.MAX_COORD));
+            renderChunks.keySet().removeIf(key -> !CubeKeys.inBox(key, min, max));
         }
         
         private void createRenderChunk(int x, int y, int z) {
@@ -707,6 +4373,7 @@ public class CubicChunkMod {
         }
         
         private void rebuildDisplayList() {
+            long start = System.nanoTime();
             worldRenderer.deleteGlBuffers();
             
             Tessellator tessellator = Tessellator.getInstance();
@@ -723,6 +4390,7 @@ public class CubicChunkMod {
             
             // Upload to GPU
             worldRenderer.bufferData(buffer.getByteBuffer());
+            METRICS.recordNanos(MetricTimer.MESH_REBUILD, System.nanoTime() - start);
         }
         
         private void buildChunkGeometry(BufferBuilder buffer, RenderChunk renderChunk) {
@@ -753,7 +4421,7 @@ public class CubicChunkMod {
         }
         
         private long getChunkKey(int x, int y, int z) {
-            return ChunkPos.asLong(x, z) | ((long) y << 32);
+            return CubeKeys.pack(x, y, z);
         }
     }
     
@@ -769,6 +4437,48 @@ public class CubicChunkMod {
             }
         }
         
+        @SubscribeEvent
+        public void onWorldLoad(net.minecraftforge.event.world.WorldEvent.Load event) {
+            World world = event.getWorld();
+            if (!world.isRemote) {
+                instance.chunkLoadingManager.partition(world.provider.getDimension()).setWorld(world);
+            }
+        }
+        
+        @SubscribeEvent
+        public void onWorldUnload(net.minecraftforge.event.world.WorldEvent.Unload event) {
+            World world = event.getWorld();
+            if (!world.isRemote) {
+                instance.chunkLoadingManager.partition(world.provider.getDimension()).setWorld(null);
+            }
+        }
+        
+        @SubscribeEvent
+        public void onPlayerChangedDimension(PlayerEvent.PlayerChangedDimensionEvent event) {
+            instance.chunkLoadingManager.partition(event.fromDim).releaseViewer(
+                event.player.getUniqueID());
+        }
+        
+        @SubscribeEvent
+        public void onPlayerLoggedOut(PlayerEvent.PlayerLoggedOutEvent event) {
+            instance.chunkLoadingManager.releasePlayer(event.player.getUniqueID());
+        }
+        
+        @SubscribeEvent
+        public void onServerTick(TickEvent.ServerTickEvent event) {
+            if (event.phase == TickEvent.Phase.END) {
+                // Cubes finished by the loader since last tick; the rest waits for the next one
+                instance.mainThread.runFor(PUBLISH_BUDGET_MICROS * 1000L);
+                METRICS.sample(System.currentTimeMillis());
+                
+                MinecraftServer server = net.minecraftforge.fml.common.FMLCommonHandler.instance()
+                    .getMinecraftServerInstance();
+                if (server != null) {
+                    instance.pregenerator.tick(server);
+                }
+            }
+        }
+        
         @SubscribeEvent
         @SideOnly(Side.CLIENT)
         public void onRenderWorldLast(net.minecraftforge.client.event.RenderWorldLastEvent event) {
@@ -781,6 +4491,11 @@ public class CubicChunkMod {
     
     // Commands
     public class CommandCubicChunk extends CommandBase {
+        private static final int NEARBY_RADIUS = 2;
+        private final java.util.regex.Pattern transferName = java.util.regex.Pattern.compile("[A-Za-z0-9_-]+");
+        private final java.util.concurrent.atomic.AtomicBoolean transferRunning =
+            new java.util.concurrent.atomic.AtomicBoolean();
+        
         @Override
         public String getName() {
             return "cubicchunk";
@@ -788,7 +4503,7 @@ public class CubicChunkMod {
         
         @Override
         public String getUsage(ICommandSender sender) {
-            return "/cubicchunk <reload|info|generate> [x] [y] [z] [radius]";
+            return "/cubicchunk <reload|info|stats|generate> [x] [y] [z] [radius] [dimension] | generate <status|pause|resume|cancel> | <export|import> <name> [dimension]";
         }
         
         @Override
@@ -815,6 +4530,13 @@ public class CubicChunkMod {
                 case "debug":
                     debugInfo(sender);
                     break;
+                case "stats":
+                    showStats(sender, args);
+                    break;
+                case "export":
+                case "import":
+                    transferCubes(server, sender, subCommand, args);
+                    break;
                 default:
                     sender.sendMessage(new TextComponentString(
                         TextFormatting.RED + "Unknown subcommand: " + subCommand));
@@ -822,15 +4544,20 @@ public class CubicChunkMod {
         }
         
         private void reloadChunks(ICommandSender sender) {
-            // Reload chunk system
-            loadedChunks.clear();
-            sender.sendMessage(new TextComponentString(
-                TextFormatting.GREEN + "CubicChunk system reloaded!"));
+            // Reload chunk system; the summary arrives on the server thread
+            boolean started = instance.chunkLoadingManager.reload(summary ->
+                sender.sendMessage(new TextComponentString(TextFormatting.GREEN + summary)));
+            sender.sendMessage(new TextComponentString(started ?
+                TextFormatting.YELLOW + "Reloading CubicChunk system..." :
+                TextFormatting.RED + "A reload is already running!"));
         }
         
         private void showChunkInfo(ICommandSender sender) {
-            int loadedCount = loadedChunks.size();
-            long memoryUsage = loadedCount * 4096L * 4; // Approximate
+            int loadedCount = instance.chunkLoadingManager.getLoadedCount();
+            long memoryUsage = 0;
+            for (long bytes : stats.getEstimatedBytesByStorageMode().values()) {
+                memoryUsage += bytes;
+            }
             
             sender.sendMessage(new TextComponentString(
                 TextFormatting.GOLD + "=== CubicChunk Info ==="));
@@ -848,9 +4575,14 @@ public class CubicChunkMod {
         }
         
         private void generateChunks(ICommandSender sender, String[] args) {
+            if (args.length == 2) {
+                controlPregeneration(sender, args[1].toLowerCase());
+                return;
+            }
+            
             if (args.length < 5) {
                 sender.sendMessage(new TextComponentString(
-                    TextFormatting.RED + "Usage: /cubicchunk generate <x> <y> <z> <radius>"));
+                    TextFormatting.RED + "Usage: /cubicchunk generate <x> <y> <z> <radius> [dimension]"));
                 return;
             }
             
@@ -859,20 +4591,19 @@ public class CubicChunkMod {
                 int centerY = Integer.parseInt(args[2]);
                 int centerZ = Integer.parseInt(args[3]);
                 int radius = Integer.parseInt(args[4]);
+                int dimension = args.length > 5 ? Integer.parseInt(args[5]) :
+                    sender.getEntityWorld().provider.getDimension();
                 
-                int generated = 0;
-                for (int dx = -radius; dx <= radius; dx++) {
-                    for (int dy = -radius; dy <= radius; dy++) {
-                        for (int dz = -radius; dz <= radius; dz++) {
-                            instance.chunkLoadingManager.requestChunkLoad(
-                                centerX + dx, centerY + dy, centerZ + dz);
-                            generated++;
-                        }
-                    }
+                if (!instance.pregenerator.start(dimension, centerX, centerY, centerZ, radius)) {
+                    sender.sendMessage(new TextComponentString(
+                        TextFormatting.RED + "A pregeneration job is already active! " +
+                        "Use /cubicchunk generate cancel first."));
+                    return;
                 }
                 
                 sender.sendMessage(new TextComponentString(
-                    TextFormatting.GREEN + "Queued " + generated + " chunks for generation!"));
+                    TextFormatting.GREEN + "Started pregeneration of " +
+                    instance.pregenerator.getJob().total + " chunks!"));
                 
             } catch (NumberFormatException e) {
                 sender.sendMessage(new TextComponentString(
@@ -880,30 +4611,231 @@ public class CubicChunkMod {
             }
         }
         
+        private void controlPregeneration(ICommandSender sender, String action) {
+            PregenerationManager pregenerator = instance.pregenerator;
+            boolean changed;
+            
+            switch (action) {
+                case "status":
+                    PregenerationJob job = pregenerator.getJob();
+                    if (job == null) {
+                        sender.sendMessage(new TextComponentString(
+                            TextFormatting.YELLOW + "No pregeneration job."));
+                    } else {
+                        sender.sendMessage(new TextComponentString(
+                            TextFormatting.GOLD + "Pregeneration " + job.getState() + ": " +
+                            TextFormatting.WHITE + job.describeProgress()));
+                    }
+                    return;
+                case "pause":
+                    changed = pregenerator.pause();
+                    break;
+                case "resume":
+                    changed = pregenerator.resume();
+                    break;
+                case "cancel":
+                    changed = pregenerator.cancel();
+                    break;
+                default:
+                    sender.sendMessage(new TextComponentString(
+                        TextFormatting.RED + "Unknown generate action: " + action));
+                    return;
+            }
+            
+            sender.sendMessage(new TextComponentString(changed ?
+                TextFormatting.GREEN + "Pregeneration " +
+                    pregenerator.getJob().getState().name().toLowerCase() + "." :
+                TextFormatting.RED + "Nothing to " + action + "!"));
+        }
+        
+        private void showStats(ICommandSender sender, String[] args) {
+            int seconds = 60;
+            if (args.length > 1) {
+                try {
+                    seconds = Integer.parseInt(args[1]);
+                } catch (NumberFormatException e) {
+                    sender.sendMessage(new TextComponentString(
+                        TextFormatting.RED + "Invalid number format!"));
+                    return;
+                }
+            }
+            
+            MetricsSnapshot window = METRICS.window(seconds);
+            sender.sendMessage(new TextComponentString(
+                TextFormatting.GOLD + "=== CubicChunk Stats (last " + 
+                (window.durationMillis / 1000) + "s) ==="));
+            sender.sendMessage(new TextComponentString(String.format(
+                "%sLoads: %s%.1f/s %s(already loaded %.1f%%, disk %d, pristine %d, generated %d)",
+                TextFormatting.WHITE, TextFormatting.GREEN, window.perSecond(MetricCounter.LOAD_REQUESTS),
+                TextFormatting.GRAY, window.alreadyLoadedRate() * 100, window.get(MetricCounter.DISK_HITS),
+                window.get(MetricCounter.PRISTINE_HITS), window.get(MetricCounter.GENERATED))));
+            
+            for (MetricTimer timer : MetricTimer.values()) {
+                sender.sendMessage(new TextComponentString(String.format(
+                    "%s%s: %s%d %sp50 %s%dus %sp99 %s%dus",
+                    TextFormatting.WHITE, timer.name().toLowerCase(),
+                    TextFormatting.GREEN, window.count(timer),
+                    TextFormatting.GRAY, TextFormatting.AQUA, window.percentileMicros(timer, 50),
+                    TextFormatting.GRAY, TextFormatting.AQUA, window.percentileMicros(timer, 99))));
+            }
+            
+            sender.sendMessage(new TextComponentString(String.format(
+                "%sI/O: %sread %d KB, written %d KB",
+                TextFormatting.WHITE, TextFormatting.GREEN,
+                window.get(MetricCounter.BYTES_READ) / 1024, window.get(MetricCounter.BYTES_WRITTEN) / 1024)));
+            sender.sendMessage(new TextComponentString(String.format(
+                "%sQueues: %sload %d, unload %d, publish %d",
+                TextFormatting.WHITE, TextFormatting.AQUA,
+                stats.getLoadQueueDepth(), stats.getUnloadQueueDepth(), stats.getPublishBacklog())));
+            sender.sendMessage(new TextComponentString(String.format(
+                "%sPublished: %s%d cubes %s(%d ticks over the %dus budget)",
+                TextFormatting.WHITE, TextFormatting.GREEN, window.get(MetricCounter.PUBLISHED),
+                TextFormatting.GRAY, window.get(MetricCounter.TICK_OVERRUNS), PUBLISH_BUDGET_MICROS)));
+            sender.sendMessage(new TextComponentString(String.format(
+                "%sPrefetch: %s%d cubes %s(accuracy %.1f%%, %d hits, %d misses)",
+                TextFormatting.WHITE, TextFormatting.GREEN, window.get(MetricCounter.PREFETCHED),
+                TextFormatting.GRAY, window.prefetchAccuracy() * 100,
+                window.get(MetricCounter.PREFETCH_HITS), window.get(MetricCounter.PREFETCH_MISSES))));
+            sender.sendMessage(new TextComponentString(String.format(
+                "%sArrays: %s%d reused, %d allocated %s(%d KB pooled, %d leaked)",
+                TextFormatting.WHITE, TextFormatting.GREEN, window.get(MetricCounter.ARRAYS_REUSED),
+                window.get(MetricCounter.ARRAYS_ALLOCATED), TextFormatting.GRAY,
+                stats.getPooledBytes() / 1024, stats.getArrayLeaks())));
+            
+            Map<String, Long> cubes = stats.getCubesByStorageMode();
+            Map<String, Long> bytes = stats.getEstimatedBytesByStorageMode();
+            for (Map.Entry<String, Long> entry : cubes.entrySet()) {
+                sender.sendMessage(new TextComponentString(String.format(
+                    "%s%s cubes: %s%d %s(~%d bytes each, ~%d KB total)",
+                    TextFormatting.WHITE, entry.getKey().toLowerCase(),
+                    TextFormatting.GREEN, entry.getValue(), TextFormatting.GRAY,
+                    bytes.get(entry.getKey()) / entry.getValue(), bytes.get(entry.getKey()) / 1024)));
+            }
+        }
+        
+        /**
+         * Runs a bulk export or import on its own thread; the result is
+         * reported back to the sender on the server thread.
+         */
+        private void transferCubes(MinecraftServer server, ICommandSender sender, String action, String[] args) {
+            if (args.length < 2 || !transferName.matcher(args[1]).matches()) {
+                sender.sendMessage(new TextComponentString(
+                    TextFormatting.RED + "Usage: /cubicchunk " + action + " <name> [dimension] " +
+                    "(name: letters, digits, _ and -)"));
+                return;
+            }
+            
+            int dimension;
+            try {
+                dimension = args.length > 2 ? Integer.parseInt(args[2]) :
+                    sender.getEntityWorld().provider.getDimension();
+            } catch (NumberFormatException e) {
+                sender.sendMessage(new TextComponentString(
+                    TextFormatting.RED + "Invalid number format!"));
+                return;
+            }
+            
+            java.io.File dir = new java.io.File(new java.io.File(
+                net.minecraftforge.common.DimensionManager.getCurrentSaveRootDirectory(),
+                ChunkStorageSystem.CHUNK_DATA_FOLDER), "exports");
+            java.io.File file = new java.io.File(dir, args[1] + ".ccb");
+            boolean export = action.equals("export");
+            if (!export && !file.exists()) {
+                sender.sendMessage(new TextComponentString(
+                    TextFormatting.RED + "No export named " + args[1] + "!"));
+                return;
+            }
+            if (!transferRunning.compareAndSet(false, true)) {
+                sender.sendMessage(new TextComponentString(
+                    TextFormatting.RED + "A cube export or import is already running!"));
+                return;
+            }
+            dir.mkdirs();
+            
+            CubeBatchTransfer transfer = new CubeBatchTransfer(dimension, file);
+            ChunkLoadingManager.DimensionPartition partition = instance.chunkLoadingManager.partition(dimension);
+            Thread thread = new Thread(() -> {
+                String result;
+                try {
+                    if (export) {
+                        transfer.exportCubes();
+                        result = TextFormatting.GREEN + "Exported " + transfer.getCubes() + " cubes to " +
+                            file.getName() + (transfer.getSkipped() > 0 ?
+                                TextFormatting.YELLOW + " (" + transfer.getSkipped() + " unreadable skipped)" : "");
+                    } else {
+                        transfer.importCubes(key -> partition.loadedChunks.contains(key) ||
+                            ChunkStorageSystem.pendingPayload(dimension,
+                                CubeKeys.x(key), CubeKeys.y(key), CubeKeys.z(key)) != null);
+                        result = TextFormatting.GREEN + "Imported " + transfer.getCubes() + " cubes" +
+                            (transfer.getSkipped() > 0 ?
+                                TextFormatting.YELLOW + " (" + transfer.getSkipped() + " in use skipped)" : "");
+                    }
+                } catch (IOException e) {
+                    logger.error("Cube {} of {} failed", action, file, e);
+                    result = TextFormatting.RED + "Cube " + action + " failed: " + e.getMessage();
+                } finally {
+                    transferRunning.set(false);
+                }
+                
+                String message = result;
+                server.addScheduledTask(() -> sender.sendMessage(new TextComponentString(message)));
+            }, "CubicChunk-Transfer");
+            thread.setDaemon(true);
+            thread.start();
+            
+            sender.sendMessage(new TextComponentString(
+                TextFormatting.YELLOW + "Started cube " + action + " for dimension " + dimension + "..."));
+        }
+        
         private void debugInfo(ICommandSender sender) {
             // Show detailed debug information
             StringBuilder info = new StringBuilder();
             info.append(TextFormatting.GOLD).append("=== CubicChunk Debug ===\n");
             
             info.append(TextFormatting.WHITE).append("Active chunks: ")
-                .append(TextFormatting.GREEN).append(loadedChunks.size()).append("\n");
+                .append(TextFormatting.GREEN).append(instance.chunkLoadingManager.getLoadedCount());
             
-            // Count dirty chunks
-            long dirtyCount = loadedChunks.values().stream()
-                .filter(CubicChunk::isDirty)
-                .count();
-            
-            info.append(TextFormatting.WHITE).append("Dirty chunks: ")
-                .append(TextFormatting.YELLOW).append(dirtyCount).append("\n");
-            
-            // Show chunk loading queue sizes
-            info.append(TextFormatting.WHITE).append("Load queue: ")
-                .append(TextFormatting.AQUA)
-                .append(instance.chunkLoadingManager.chunksToLoad.size()).append("\n");
-            
-            info.append(TextFormatting.WHITE).append("Unload queue: ")
-                .append(TextFormatting.AQUA)
-                .append(instance.chunkLoadingManager.chunksToUnload.size());
+            for (ChunkLoadingManager.DimensionPartition partition : 
+                 instance.chunkLoadingManager.getPartitions()) {
+                // Count dirty chunks
+                long dirtyCount = partition.loadedChunks.values().stream()
+                    .filter(CubicChunk::isDirty)
+                    .count();
+                
+                info.append("\n").append(TextFormatting.GOLD).append("Dimension ")
+                    .append(partition.dimension).append(": ")
+                    .append(TextFormatting.GREEN).append(partition.loadedChunks.size())
+                    .append(TextFormatting.WHITE).append(" loaded, ")
+                    .append(TextFormatting.YELLOW).append(dirtyCount)
+                    .append(TextFormatting.WHITE).append(" dirty in ")
+                    .append(TextFormatting.GREEN).append(partition.loadedChunks.countRegions())
+                    .append(TextFormatting.WHITE).append(" regions");
+                
+                // Cubes around the sender come from a box query, not a full scan
+                if (sender.getEntityWorld().provider.getDimension() == partition.dimension) {
+                    BlockPos pos = sender.getPosition();
+                    int[] near = new int[2];
+                    partition.loadedChunks.forEachNear(pos.getX() >> 4, pos.getY() >> 4, pos.getZ() >> 4,
+                        NEARBY_RADIUS, chunk -> {
+                            near[0]++;
+                            if (chunk.isDirty()) near[1]++;
+                        });
+                    info.append("\n").append(TextFormatting.WHITE).append("  Within ")
+                        .append(NEARBY_RADIUS).append(" cubes of you: ")
+                        .append(TextFormatting.GREEN).append(near[0])
+                        .append(TextFormatting.WHITE).append(" loaded, ")
+                        .append(TextFormatting.YELLOW).append(near[1])
+                        .append(TextFormatting.WHITE).append(" dirty");
+                }
+                
+                // Show chunk loading queue sizes
+                info.append("\n").append(TextFormatting.WHITE).append("  Load queue: ")
+                    .append(TextFormatting.AQUA).append(partition.getLoadQueueSize())
+                    .append(TextFormatting.WHITE).append(", unload queue: ")
+                    .append(TextFormatting.AQUA).append(partition.getUnloadQueueSize())
+                    .append(TextFormatting.WHITE).append(", background: ")
+                    .append(TextFormatting.AQUA).append(partition.getBackgroundQueueSize());
+            }
             
             sender.sendMessage(new TextComponentString(info.toString()));
         }
@@ -3,8 +3,10 @@ package com.threetag.mod;
 import net.minecraftforge.fml.common.Mod;
 import net.minecraftforge.fml.common.Mod.EventHandler;
 import net.minecraftforge.fml.common.event.FMLInitializationEvent;
+import net.minecraftforge.fml.common.event.FMLModIdMappingEvent;
 import net.minecraftforge.fml.common.event.FMLPostInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLPreInitializationEvent;
+import net.minecraftforge.fml.common.event.FMLServerStartingEvent;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
 import net.minecraftforge.fml.common.gameevent.InputEvent;
 import net.minecraftforge.fml.common.gameevent.TickEvent;
@@ -14,29 +16,44 @@ import net.minecraftforge.client.settings.KeyConflictContext;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.GuiScreen;
+import net.minecraft.client.gui.GuiTextField;
 import net.minecraft.client.gui.ScaledResolution;
 import net.minecraft.client.gui.inventory.GuiContainer;
 import net.minecraft.client.renderer.GlStateManager;
+import net.minecraft.client.renderer.BufferBuilder;
 import net.minecraft.client.renderer.RenderHelper;
+import net.minecraft.client.renderer.Tessellator;
+import net.minecraft.client.renderer.vertex.DefaultVertexFormats;
 import net.minecraft.client.settings.KeyBinding;
+import net.minecraft.command.CommandBase;
+import net.minecraft.command.CommandException;
+import net.minecraft.command.ICommandSender;
 import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.entity.player.InventoryPlayer;
 import net.minecraft.inventory.Container;
+import net.minecraft.inventory.IContainerListener;
+import net.minecraft.inventory.IInventory;
 import net.minecraft.inventory.Slot;
 import net.minecraft.item.Item;
 import net.minecraft.item.ItemStack;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.nbt.NBTTagList;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.NonNullList;
+import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.ResourceLocation;
 import net.minecraft.util.text.TextComponentString;
 import net.minecraft.util.text.TextFormatting;
 import net.minecraft.world.World;
 import net.minecraftforge.items.CapabilityItemHandler;
 import net.minecraftforge.items.IItemHandler;
+import org.apache.logging.log4j.Logger;
 import org.lwjgl.input.Keyboard;
 import org.lwjgl.opengl.GL11;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 @Mod(modid = THREETAGMod.MODID, 
@@ -60,6 +77,15 @@ public class THREETAGMod {
     // Tag system
     public static final Map<String, TagCategory> TAG_CATEGORIES = new HashMap<>();
     public static final List<TagPreset> TAG_PRESETS = new ArrayList<>();
+    public static final TagIndex TAG_INDEX = new TagIndex();
+    
+    // Auto-tagging, compiled from config/threetag_autotags.cfg
+    private static volatile AutoTagger autoTagger;
+    private static List<Map.Entry<String, Item>> taggedItems = Collections.emptyList();
+    private static ItemFeatures[] itemFeatures; // Probed on the first cold scan or reload
+    private static java.io.File autoTagRulesFile;
+    private static java.io.File autoTagCacheFile;
+    public static Logger logger;
     
     // Colors for tags (RGB)
     public static final int[] TAG_COLORS = {
@@ -72,6 +98,10 @@ public class THREETAGMod {
     
     @EventHandler
     public void preInit(FMLPreInitializationEvent event) {
+        logger = event.getModLog();
+        autoTagCacheFile = new java.io.File(event.getModConfigurationDirectory(), MODID + "_autotags.cache");
+        autoTagRulesFile = new java.io.File(event.getModConfigurationDirectory(), MODID + "_autotags.cfg");
+        
         // Initialize tag system
         initializeTagCategories();
         initializeTagPresets();
@@ -100,6 +130,19 @@ public class THREETAGMod {
         scanAllItemsForTags();
     }
     
+    @EventHandler
+    public void remapIds(FMLModIdMappingEvent event) {
+        // Numeric item IDs change when a world loads or a server is joined
+        ItemAutoTagCache.reindex();
+    }
+    
+    @EventHandler
+    public void serverStarting(FMLServerStartingEvent event) {
+        // Containers are indexed as they are opened in this world
+        TAG_INDEX.clear();
+        event.registerServerCommand(new CommandThreeTag());
+    }
+    
     @SideOnly(Side.CLIENT)
     private void registerKeyBindings() {
         openTagGui = new KeyBinding("key.threetag.open", 
@@ -135,6 +178,13 @@ public class THREETAGMod {
         TAG_CATEGORIES.put("origin", new TagCategory("Origin",
             Arrays.asList("overworld", "nether", "end", "dimension", "ancient", 
                          "modern", "futuristic")));
+        
+        // Built-in tags get the lowest IDs, so common tag sets fit in one word
+        for (Map.Entry<String, TagCategory> entry : TAG_CATEGORIES.entrySet()) {
+            for (String tag : entry.getValue().tags) {
+                TagRegistry.id(entry.getKey() + ":" + tag);
+            }
+        }
     }
     
     private void initializeTagPresets() {
@@ -160,58 +210,612 @@ public class THREETAGMod {
     }
     
     private void scanAllItemsForTags() {
-        // Auto-tag all registered items based on properties
+        long start = System.nanoTime();
+        autoTagger = new AutoTagger(AutoTagRule.load(autoTagRulesFile));
+        
+        // Sorted by name, so the cache can be keyed and read back by position
+        List<Map.Entry<String, Item>> items = new ArrayList<>();
         for (ResourceLocation itemId : Item.REGISTRY.getKeys()) {
             Item item = Item.REGISTRY.getObject(itemId);
             if (item != null) {
-                autoTagItem(item);
+                items.add(new AbstractMap.SimpleImmutableEntry<>(itemId.toString(), item));
             }
         }
+        items.sort(Map.Entry.comparingByKey());
+        taggedItems = items;
+        
+        long key = AutoTagCache.key(items, autoTagger.fingerprint());
+        List<List<String>> tags = AutoTagCache.read(autoTagCacheFile, key, items.size());
+        boolean cached = tags != null;
+        if (!cached) {
+            ItemFeatures[] features = probeItems(items);
+            AutoTagger tagger = autoTagger;
+            tags = java.util.stream.IntStream.range(0, items.size()).parallel()
+                .mapToObj(i -> tagger.tagsFor(features[i]))
+                .collect(Collectors.toList());
+            itemFeatures = features;
+            AutoTagCache.write(autoTagCacheFile, key, tags);
+        }
+        
+        Map<Item, List<String>> published = new IdentityHashMap<>();
+        for (int i = 0; i < items.size(); i++) {
+            published.put(items.get(i).getValue(), tags.get(i));
+        }
+        ItemAutoTagCache.setAutoTags(published);
+        logger.info("Auto-tagged {} items with {} rules in {} ms ({})", items.size(), autoTagger.rules.size(),
+            (System.nanoTime() - start) / 1000000, cached ? "from cache" : "scanned");
     }
     
-    private void autoTagItem(Item item) {
-        ItemStack stack = new ItemStack(item);
-        String itemName = item.getRegistryName().toString().toLowerCase();
+    /**
+     * Reloads the auto-tag rules and re-tags only the items a changed rule
+     * matches, before or after the change. Item properties are probed once
+     * and kept, so a reload costs a name scan and the affected evaluations.
+     * After a start from the cache nothing has been probed yet, so the first
+     * reload probes every item, serially on the calling thread; the reply
+     * says so, as that one holds up the server tick.
+     *
+     * @return a summary for the command sender
+     */
+    public static synchronized String reloadAutoTagRules() {
+        long start = System.nanoTime();
+        AutoTagger previous = autoTagger;
+        AutoTagger next = new AutoTagger(AutoTagRule.load(autoTagRulesFile));
+        
+        Set<AutoTagRule> changed = new LinkedHashSet<>(previous.rules);
+        changed.addAll(next.rules);
+        Set<AutoTagRule> kept = new HashSet<>(previous.rules);
+        kept.retainAll(next.rules);
+        changed.removeAll(kept);
+        autoTagger = next;
+        if (changed.isEmpty()) {
+            return "Reloaded " + next.rules.size() + " auto-tag rules, none changed";
+        }
+        
+        String probed = "";
+        if (itemFeatures == null) {
+            long probeStart = System.nanoTime();
+            itemFeatures = probeItems(taggedItems); // Warm start: nothing probed yet
+            probed = String.format(" (first reload since a cached start: probed all items in %d ms on the server thread)",
+                (System.nanoTime() - probeStart) / 1000000);
+        }
+        ItemFeatures[] features = itemFeatures;
+        AutoTagger affected = new AutoTagger(new ArrayList<>(changed));
+        List<List<String>> tags = new ArrayList<>(taggedItems.size());
+        for (Map.Entry<String, Item> item : taggedItems) {
+            tags.add(ItemTagManager.getAutoTags(item.getValue()));
+        }
+        int[] retagged = java.util.stream.IntStream.range(0, taggedItems.size()).parallel()
+            .filter(i -> affected.matchesAny(features[i]))
+            .toArray();
+        
+        Map<Item, List<String>> published = new IdentityHashMap<>();
+        for (int i : retagged) {
+            List<String> itemTags = next.tagsFor(features[i]);
+            tags.set(i, itemTags);
+            published.put(taggedItems.get(i).getValue(), itemTags);
+        }
+        ItemAutoTagCache.setAutoTags(published);
+        AutoTagCache.write(autoTagCacheFile, AutoTagCache.key(taggedItems, next.fingerprint()), tags);
+        
+        return String.format("Reloaded %d auto-tag rules, %d changed; re-tagged %d of %d items in %d ms%s",
+            next.rules.size(), changed.size(), retagged.length, taggedItems.size(),
+            (System.nanoTime() - start) / 1000000, probed);
+    }
+    
+    // Serial, on the calling (main or server) thread: building an ItemStack fires
+    // AttachCapabilitiesEvent into other mods' handlers, which need not be thread-safe.
+    // Only the pure rule evaluation over the probed features runs in parallel.
+    private static ItemFeatures[] probeItems(List<Map.Entry<String, Item>> items) {
+        ItemFeatures[] features = new ItemFeatures[items.size()];
+        for (int i = 0; i < features.length; i++) {
+            Map.Entry<String, Item> item = items.get(i);
+            features[i] = ItemFeatures.probe(item.getKey(), item.getValue());
+        }
+        return features;
+    }
+    
+    /**
+     * One auto-tag rule. A rule matches when every condition it sets holds;
+     * a list condition holds when any of its entries does. A fallback rule
+     * only applies when no other rule gave the item a tag in its category.
+     */
+    public static final class AutoTagRule {
+        static final String CATEGORY = "rules";
+        
+        public final String id;
+        public final String tag;
+        final String[] keywords;
+        final String[] toolClasses;
+        final Boolean food; // Null matches either
+        final String[] armorSlots;
+        final String[] creativeTabs;
+        final boolean fallback;
+        
+        public AutoTagRule(String id, String tag, String[] keywords, String[] toolClasses, Boolean food,
+                           String[] armorSlots, String[] creativeTabs, boolean fallback) {
+            this.id = id;
+            this.tag = tag.toLowerCase();
+            this.keywords = lowerCase(keywords);
+            this.toolClasses = toolClasses.clone();
+            this.food = food;
+            this.armorSlots = lowerCase(armorSlots);
+            this.creativeTabs = creativeTabs.clone();
+            this.fallback = fallback;
+        }
         
-        // Analyze item and assign automatic tags
-        List<String> autoTags = new ArrayList<>();
+        static AutoTagRule name(String id, String tag, String... keywords) {
+            return new AutoTagRule(id, tag, keywords, new String[0], null, new String[0], new String[0], false);
+        }
         
-        // Material detection
-        if (itemName.contains("wood") || itemName.contains("log") || itemName.contains("plank")) {
-            autoTags.add("material:wood");
-        } else if (itemName.contains("stone") || itemName.contains("cobble") || itemName.contains("brick")) {
-            autoTags.add("material:stone");
-        } else if (itemName.contains("iron") || itemName.contains("gold") || itemName.contains("diamond")) {
-            autoTags.add("material:metal");
-        } else if (itemName.contains("emerald") || itemName.contains("quartz") || itemName.contains("gem")) {
-            autoTags.add("material:gem");
+        public String category() {
+            int colon = tag.indexOf(':');
+            return colon >= 0 ? tag.substring(0, colon) : tag;
         }
         
-        // Purpose detection
-        if (item.getToolClasses(stack).contains("pickaxe") || 
-            item.getToolClasses(stack).contains("axe") ||
-            item.getToolClasses(stack).contains("shovel")) {
-            autoTags.add("purpose:tool");
-        } else if (itemName.contains("sword") || itemName.contains("bow") || itemName.contains("arrow")) {
-            autoTags.add("purpose:weapon");
-        } else if (itemName.contains("helmet") || itemName.contains("chestplate") || 
-                   itemName.contains("leggings") || itemName.contains("boots")) {
-            autoTags.add("purpose:armor");
-        } else if (item.isFood()) {
-            autoTags.add("purpose:consumable");
+        public static List<AutoTagRule> defaults() {
+            String[] none = new String[0];
+            return Arrays.asList(
+                name("material_wood", "material:wood", "wood", "log", "plank"),
+                name("material_stone", "material:stone", "stone", "cobble", "brick"),
+                name("material_metal", "material:metal", "iron", "gold", "diamond"),
+                name("material_gem", "material:gem", "emerald", "quartz", "gem"),
+                new AutoTagRule("purpose_tool", "purpose:tool", none,
+                    new String[] {"pickaxe", "axe", "shovel"}, null, none, none, false),
+                name("purpose_weapon", "purpose:weapon", "sword", "bow", "arrow"),
+                new AutoTagRule("purpose_armor", "purpose:armor", none, none, null,
+                    new String[] {"head", "chest", "legs", "feet"}, none, false),
+                new AutoTagRule("purpose_consumable", "purpose:consumable", none, none, true, none, none, false),
+                name("rarity_uncommon", "rarity:uncommon", "diamond", "emerald", "nether"),
+                name("rarity_rare", "rarity:rare", "ender", "dragon"),
+                new AutoTagRule("rarity_common", "rarity:common", none, none, null, none, none, true));
         }
         
-        // Rarity estimation based on crafting cost
-        if (itemName.contains("diamond") || itemName.contains("emerald") || itemName.contains("nether")) {
-            autoTags.add("rarity:uncommon");
-        } else if (itemName.contains("ender") || itemName.contains("dragon")) {
-            autoTags.add("rarity:rare");
-        } else {
-            autoTags.add("rarity:common");
+        /** Reads every configured rule, writing the defaults into a config without any. */
+        public static List<AutoTagRule> load(java.io.File file) {
+            net.minecraftforge.common.config.Configuration config =
+                new net.minecraftforge.common.config.Configuration(file);
+            config.load();
+            
+            String prefix = CATEGORY + net.minecraftforge.common.config.Configuration.CATEGORY_SPLITTER;
+            boolean configured = false;
+            for (String category : config.getCategoryNames()) {
+                configured |= category.startsWith(prefix);
+            }
+            if (!configured) {
+                for (AutoTagRule rule : defaults()) {
+                    rule.write(config, prefix + rule.id);
+                }
+            }
+            config.setCategoryComment(CATEGORY, "Auto-tag rules, one sub-category each; every matching rule adds its tag");
+            
+            List<AutoTagRule> rules = new ArrayList<>();
+            for (String category : new TreeSet<>(config.getCategoryNames())) {
+                if (category.startsWith(prefix)) {
+                    AutoTagRule rule = read(config, category, category.substring(prefix.length()));
+                    if (rule != null) {
+                        rules.add(rule);
+                    }
+                }
+            }
+            if (config.hasChanged()) {
+                config.save();
+            }
+            return rules;
+        }
+        
+        /** @return null, after logging why, for a rule that would tag nothing sensible */
+        private static AutoTagRule read(net.minecraftforge.common.config.Configuration config,
+                                        String category, String id) {
+            String tag = config.get(category, "tag", "", "Tag to add, as category:tag").getString().trim();
+            int colon = tag.indexOf(':');
+            if (colon <= 0 || colon == tag.length() - 1) {
+                logger.warn("Skipping auto-tag rule {}: tag \"{}\" is not category:tag", id, tag);
+                return null;
+            }
+            String food = config.get(category, "food", "any", "true, false or any").getString().trim();
+            if (!food.equalsIgnoreCase("any") && !food.equalsIgnoreCase("true") && !food.equalsIgnoreCase("false")) {
+                logger.warn("Skipping auto-tag rule {}: food is \"{}\", expected true, false or any", id, food);
+                return null;
+            }
+            return new AutoTagRule(id, tag,
+                config.get(category, "names", new String[0], "Registry name substrings, any of").getStringList(),
+                config.get(category, "toolClasses", new String[0], "Tool classes, any of").getStringList(),
+                food.equalsIgnoreCase("any") ? null : Boolean.valueOf(food),
+                config.get(category, "armor", new String[0], "Armor slots (head, chest, legs, feet), any of").getStringList(),
+                config.get(category, "creativeTabs", new String[0], "Creative tab labels, any of").getStringList(),
+                config.get(category, "fallback", false, "Only if no other rule tagged this category").getBoolean());
+        }
+        
+        private void write(net.minecraftforge.common.config.Configuration config, String category) {
+            config.get(category, "tag", tag, "Tag to add, as category:tag");
+            config.get(category, "names", keywords, "Registry name substrings, any of");
+            config.get(category, "toolClasses", toolClasses, "Tool classes, any of");
+            config.get(category, "food", food == null ? "any" : food.toString(), "true, false or any");
+            config.get(category, "armor", armorSlots, "Armor slots (head, chest, legs, feet), any of");
+            config.get(category, "creativeTabs", creativeTabs, "Creative tab labels, any of");
+            config.get(category, "fallback", fallback, "Only if no other rule tagged this category");
+        }
+        
+        private static String[] lowerCase(String[] values) {
+            String[] lower = new String[values.length];
+            for (int i = 0; i < values.length; i++) {
+                lower[i] = values[i].toLowerCase();
+            }
+            return lower;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof AutoTagRule)) return false;
+            AutoTagRule other = (AutoTagRule) o;
+            return id.equals(other.id) && tag.equals(other.tag) && Objects.equals(food, other.food) &&
+                   fallback == other.fallback && Arrays.equals(keywords, other.keywords) &&
+                   Arrays.equals(toolClasses, other.toolClasses) && Arrays.equals(armorSlots, other.armorSlots) &&
+                   Arrays.equals(creativeTabs, other.creativeTabs);
+        }
+        
+        @Override
+        public int hashCode() {
+            return Objects.hash(id, tag, food, fallback, Arrays.hashCode(keywords), Arrays.hashCode(toolClasses),
+                Arrays.hashCode(armorSlots), Arrays.hashCode(creativeTabs));
+        }
+        
+        @Override
+        public String toString() {
+            return id + "=" + tag + Arrays.toString(keywords) + Arrays.toString(toolClasses) + food +
+                   Arrays.toString(armorSlots) + Arrays.toString(creativeTabs) + (fallback ? " fallback" : "");
+        }
+    }
+    
+    // What the rules can look at, probed once per item
+    static final class ItemFeatures {
+        final String name;
+        final Set<String> toolClasses;
+        final boolean food;
+        final String armorSlot;
+        final String creativeTab;
+        
+        ItemFeatures(String name, Set<String> toolClasses, boolean food, String armorSlot, String creativeTab) {
+            this.name = name;
+            this.toolClasses = toolClasses;
+            this.food = food;
+            this.armorSlot = armorSlot;
+            this.creativeTab = creativeTab;
+        }
+        
+        static ItemFeatures probe(String name, Item item) {
+            try {
+                Set<String> toolClasses = item.getToolClasses(new ItemStack(item));
+                String armorSlot = item instanceof net.minecraft.item.ItemArmor ?
+                    ((net.minecraft.item.ItemArmor) item).armorType.getName() : null;
+                String tab = item.getCreativeTab() != null ? item.getCreativeTab().getTabLabel() : null;
+                return new ItemFeatures(name, toolClasses != null ? new HashSet<>(toolClasses) : Collections.emptySet(),
+                    item.isFood(), armorSlot, tab);
+            } catch (RuntimeException e) {
+                logger.warn("Could not probe {} for auto-tagging: {}", name, e);
+                return new ItemFeatures(name, Collections.emptySet(), false, null, null);
+            }
+        }
+    }
+    
+    /**
+     * Auto-tag rules compiled into one predicate program: all name patterns
+     * share one keyword automaton, and tool classes, armor slots and creative
+     * tabs are interned to bits, so each rule is a handful of mask tests.
+     * Every matching rule adds its tag.
+     */
+    public static final class AutoTagger {
+        final List<AutoTagRule> rules;
+        private final KeywordMatcher matcher;
+        private final long[][] nameMasks;
+        private final long[] toolMasks;
+        private final long[] armorMasks;
+        private final long[] tabMasks;
+        private final int[] categories;
+        private final int categoryCount;
+        private final Map<String, Integer> toolBits = new HashMap<>();
+        private final Map<String, Integer> armorBits = new HashMap<>();
+        private final Map<String, Integer> tabBits = new HashMap<>();
+        
+        public AutoTagger(List<AutoTagRule> rules) {
+            this.rules = rules;
+            int count = rules.size();
+            nameMasks = new long[count][];
+            toolMasks = new long[count];
+            armorMasks = new long[count];
+            tabMasks = new long[count];
+            categories = new int[count];
+            
+            List<String> keywords = new ArrayList<>();
+            Map<String, Integer> keywordIds = new HashMap<>();
+            for (AutoTagRule rule : rules) {
+                for (String keyword : rule.keywords) {
+                    keywordIds.computeIfAbsent(keyword, k -> {
+                        keywords.add(k);
+                        return keywords.size() - 1;
+                    });
+                }
+            }
+            matcher = new KeywordMatcher(keywords);
+            
+            Map<String, Integer> categoryIds = new HashMap<>();
+            for (int r = 0; r < count; r++) {
+                AutoTagRule rule = rules.get(r);
+                nameMasks[r] = new long[matcher.words()];
+                for (String keyword : rule.keywords) {
+                    int id = keywordIds.get(keyword);
+                    nameMasks[r][id >>> 6] |= 1L << id;
+                }
+                toolMasks[r] = mask(rule.toolClasses, toolBits);
+                armorMasks[r] = mask(rule.armorSlots, armorBits);
+                tabMasks[r] = mask(rule.creativeTabs, tabBits);
+                categories[r] = categoryIds.computeIfAbsent(rule.category(), k -> categoryIds.size());
+            }
+            categoryCount = categoryIds.size();
+        }
+        
+        private static long mask(String[] values, Map<String, Integer> bits) {
+            long mask = 0;
+            for (String value : values) {
+                int bit = bits.computeIfAbsent(value, k -> bits.size());
+                if (bit >= 64) {
+                    throw new IllegalArgumentException("More than 64 distinct values for one auto-tag condition");
+                }
+                mask |= 1L << bit;
+            }
+            return mask;
+        }
+        
+        /** Changes whenever the rules do; part of the auto-tag cache key. */
+        public long fingerprint() {
+            long hash = AutoTagCache.FNV_OFFSET;
+            for (AutoTagRule rule : rules) {
+                hash = AutoTagCache.fnv(hash, rule.toString());
+            }
+            return hash;
+        }
+        
+        public List<String> tagsFor(ItemFeatures item) {
+            long[] hits = new long[matcher.words()];
+            matcher.match(item.name, hits);
+            long tools = bits(item.toolClasses, toolBits);
+            long armor = item.armorSlot != null ? bits(Collections.singleton(item.armorSlot), armorBits) : 0;
+            long tab = item.creativeTab != null ? bits(Collections.singleton(item.creativeTab), tabBits) : 0;
+            
+            List<String> tags = new ArrayList<>();
+            boolean[] tagged = new boolean[categoryCount];
+            for (int pass = 0; pass < 2; pass++) {
+                boolean fallbacks = pass == 1;
+                for (int r = 0; r < rules.size(); r++) {
+                    AutoTagRule rule = rules.get(r);
+                    if (rule.fallback != fallbacks || (fallbacks && tagged[categories[r]])) continue;
+                    if (matches(r, item, hits, tools, armor, tab) && !tags.contains(rule.tag)) {
+                        tags.add(rule.tag);
+                        tagged[categories[r]] = true;
+                    }
+                }
+            }
+            return tags;
+        }
+        
+        /** Whether any rule's conditions hold, fallback or not. */
+        boolean matchesAny(ItemFeatures item) {
+            long[] hits = new long[matcher.words()];
+            matcher.match(item.name, hits);
+            long tools = bits(item.toolClasses, toolBits);
+            long armor = item.armorSlot != null ? bits(Collections.singleton(item.armorSlot), armorBits) : 0;
+            long tab = item.creativeTab != null ? bits(Collections.singleton(item.creativeTab), tabBits) : 0;
+            for (int r = 0; r < rules.size(); r++) {
+                if (matches(r, item, hits, tools, armor, tab)) return true;
+            }
+            return false;
+        }
+        
+        private boolean matches(int r, ItemFeatures item, long[] hits, long tools, long armor, long tab) {
+            AutoTagRule rule = rules.get(r);
+            if (rule.keywords.length > 0 && !intersects(hits, nameMasks[r])) return false;
+            if (toolMasks[r] != 0 && (tools & toolMasks[r]) == 0) return false;
+            if (armorMasks[r] != 0 && (armor & armorMasks[r]) == 0) return false;
+            if (tabMasks[r] != 0 && (tab & tabMasks[r]) == 0) return false;
+            return rule.food == null || rule.food == item.food;
+        }
+        
+        private static long bits(Set<String> values, Map<String, Integer> bits) {
+            long mask = 0;
+            for (String value : values) {
+                Integer bit = bits.get(value);
+                if (bit != null) {
+                    mask |= 1L << bit;
+                }
+            }
+            return mask;
+        }
+        
+        private static boolean intersects(long[] a, long[] b) {
+            for (int i = 0; i < a.length; i++) {
+                if ((a[i] & b[i]) != 0) return true;
+            }
+            return false;
+        }
+    }
+    
+    /**
+     * Aho-Corasick automaton over lowercase keywords. One pass over a name
+     * reports every keyword it contains, as bits in a keyword-ID mask.
+     */
+    public static final class KeywordMatcher {
+        private final int[] charClass; // Char to alphabet column; 0 for chars in no keyword
+        private final int[][] transitions;
+        private final long[][] outputs;
+        private final int words;
+        
+        public KeywordMatcher(List<String> keywords) {
+            words = Math.max(1, (keywords.size() + 63) >>> 6);
+            
+            int maxChar = 0;
+            for (String keyword : keywords) {
+                for (char c : keyword.toCharArray()) {
+                    maxChar = Math.max(maxChar, c);
+                }
+            }
+            charClass = new int[maxChar + 1];
+            int classes = 1;
+            for (String keyword : keywords) {
+                for (char c : keyword.toCharArray()) {
+                    if (charClass[c] == 0) {
+                        charClass[c] = classes++;
+                    }
+                }
+            }
+            
+            // Trie
+            List<int[]> next = new ArrayList<>();
+            List<long[]> out = new ArrayList<>();
+            next.add(new int[classes]);
+            out.add(new long[words]);
+            for (int id = 0; id < keywords.size(); id++) {
+                int state = 0;
+                for (char c : keywords.get(id).toCharArray()) {
+                    int column = charClass[c];
+                    if (next.get(state)[column] == 0) {
+                        next.get(state)[column] = next.size();
+                        next.add(new int[classes]);
+                        out.add(new long[words]);
+                    }
+                    state = next.get(state)[column];
+                }
+                out.get(state)[id >>> 6] |= 1L << id;
+            }
+            
+            // Breadth-first failure links, folded into a full transition table
+            int[] fail = new int[next.size()];
+            Deque<Integer> queue = new ArrayDeque<>();
+            for (int column = 1; column < classes; column++) {
+                int child = next.get(0)[column];
+                if (child != 0) {
+                    queue.add(child);
+                }
+            }
+            while (!queue.isEmpty()) {
+                int state = queue.poll();
+                long[] inherited = out.get(fail[state]);
+                for (int w = 0; w < words; w++) {
+                    out.get(state)[w] |= inherited[w];
+                }
+                for (int column = 1; column < classes; column++) {
+                    int child = next.get(state)[column];
+                    if (child != 0) {
+                        fail[child] = next.get(fail[state])[column];
+                        queue.add(child);
+                    } else {
+                        next.get(state)[column] = next.get(fail[state])[column];
+                    }
+                }
+            }
+            
+            transitions = next.toArray(new int[0][]);
+            outputs = out.toArray(new long[0][]);
+        }
+        
+        public int words() {
+            return words;
+        }
+        
+        /** ORs the IDs of all keywords found in {@code text}, ignoring case, into {@code hits}. */
+        public void match(CharSequence text, long[] hits) {
+            int state = 0;
+            for (int i = 0; i < text.length(); i++) {
+                char c = Character.toLowerCase(text.charAt(i));
+                state = transitions[state][c < charClass.length ? charClass[c] : 0];
+                long[] found = outputs[state];
+                for (int w = 0; w < words; w++) {
+                    hits[w] |= found[w];
+                }
+            }
+        }
+    }
+    
+    /**
+     * Auto-tag results from the last scan. The key hashes the sorted item
+     * names, the loaded mods and their versions, and the rules; when it
+     * matches, the stored tags are applied by position and the scan is
+     * skipped.
+     */
+    static final class AutoTagCache {
+        private static final int MAGIC = 0x54544331; // "TTC1"
+        static final long FNV_OFFSET = 0xCBF29CE484222325L;
+        private static final long FNV_PRIME = 0x100000001B3L;
+        
+        static long fnv(long hash, String value) {
+            for (int i = 0; i < value.length(); i++) {
+                hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+            }
+            return (hash ^ 0xFF) * FNV_PRIME; // Separator, so "ab"+"c" differs from "a"+"bc"
+        }
+        
+        static long key(List<Map.Entry<String, Item>> items, long rules) {
+            long hash = fnv(FNV_OFFSET, Long.toHexString(rules));
+            for (net.minecraftforge.fml.common.ModContainer mod :
+                 net.minecraftforge.fml.common.Loader.instance().getActiveModList()) {
+                hash = fnv(fnv(hash, mod.getModId()), mod.getVersion());
+            }
+            for (Map.Entry<String, Item> item : items) {
+                hash = fnv(hash, item.getKey());
+            }
+            return hash;
+        }
+        
+        /** @return the cached tags in item order, or null if there is no cache for this key */
+        static List<List<String>> read(java.io.File file, long key, int count) {
+            if (file == null || !file.exists()) return null;
+            
+            try (java.io.DataInputStream in = new java.io.DataInputStream(
+                     new java.io.BufferedInputStream(new java.io.FileInputStream(file)))) {
+                if (in.readInt() != MAGIC || in.readLong() != key || in.readInt() != count) {
+                    return null;
+                }
+                List<List<String>> tags = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    int tagCount = in.readUnsignedByte();
+                    List<String> itemTags = new ArrayList<>(tagCount);
+                    for (int t = 0; t < tagCount; t++) {
+                        itemTags.add(in.readUTF().intern());
+                    }
+                    tags.add(itemTags);
+                }
+                return tags;
+            } catch (java.io.IOException e) {
+                logger.warn("Ignoring unreadable auto-tag cache {}: {}", file, e);
+                return null;
+            }
         }
         
-        // Store auto-tags
-        ItemTagManager.setAutoTags(item, autoTags);
+        static void write(java.io.File file, long key, List<List<String>> tags) {
+            if (file == null) return;
+            
+            java.io.File temp = new java.io.File(file.getPath() + ".tmp");
+            try (java.io.DataOutputStream out = new java.io.DataOutputStream(
+                     new java.io.BufferedOutputStream(new java.io.FileOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeLong(key);
+                out.writeInt(tags.size());
+                for (List<String> itemTags : tags) {
+                    out.writeByte(itemTags.size());
+                    for (String tag : itemTags) {
+                        out.writeUTF(tag);
+                    }
+                }
+            } catch (java.io.IOException e) {
+                logger.warn("Could not write auto-tag cache {}: {}", file, e);
+                return;
+            }
+            try {
+                java.nio.file.Files.move(temp.toPath(), file.toPath(),
+                    java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+            } catch (java.io.IOException e) {
+                logger.warn("Could not write auto-tag cache {}: {}", file, e);
+            }
+        }
     }
     
     // Tag Category class
@@ -250,154 +854,1495 @@ public class THREETAGMod {
         }
     }
     
-    // Core Tag Manager
-    public static class ItemTagManager {
-        private static final String TAG_KEY = "ThreeTags";
+    // Tag ID registry
+    public static final class TagRegistry {
+        private static final Map<String, Integer> IDS = new ConcurrentHashMap<>();
+        private static volatile String[] names = new String[64];
+        private static int count;
+        
+        /** The ID of a {@code category:tag}, assigning the next free one if it is new. */
+        public static int id(String tag) {
+            Integer id = IDS.get(tag);
+            return id != null ? id : register(tag);
+        }
         
-        public static boolean hasTags(ItemStack stack) {
-            return stack.hasTagCompound() && stack.getTagCompound().hasKey(TAG_KEY);
+        /** The ID of a known tag, or -1. */
+        public static int find(String tag) {
+            Integer id = IDS.get(tag);
+            return id != null ? id : -1;
         }
         
-        public static List<String> getTags(ItemStack stack) {
-            if (!hasTags(stack)) return Collections.emptyList();
+        public static String name(int id) {
+            String[] current = names;
+            return id >= 0 && id < current.length ? current[id] : null;
+        }
+        
+        public static synchronized int size() {
+            return count;
+        }
+        
+        private static synchronized int register(String tag) {
+            Integer existing = IDS.get(tag);
+            if (existing != null) return existing;
             
-            NBTTagList tagList = stack.getTagCompound().getTagList(TAG_KEY, 8);
-            List<String> tags = new ArrayList<>();
+            int id = count++;
+            String[] current = names;
+            if (id == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            current[id] = tag;
+            names = current;
+            IDS.put(tag, id);
+            return id;
+        }
+    }
+    
+    /**
+     * Compact tag IDs for item NBT, with the names saved per world. An ID is
+     * a hash of the tag's name, rehashed with a probe number on collision, so
+     * where this map is missing (on a client, or if the file is lost) stacks
+     * still decode for every tag whose name is known locally. Only a tag that
+     * collides on all {@link #PROBES} hashes falls back to an ID that needs
+     * the map. Unknown IDs decode as "#" + hex, which encodes back to the
+     * same ID.
+     */
+    public static class TagIdMap extends net.minecraft.world.storage.WorldSavedData {
+        public static final String NAME = MODID + "_ids";
+        private static volatile TagIdMap current;
+        private static final java.util.concurrent.atomic.AtomicInteger GENERATION =
+            new java.util.concurrent.atomic.AtomicInteger();
+        
+        static final int PROBES = 4;
+        
+        // Hashes of the names interned in TagRegistry, for decoding without a map.
+        // A name's own hash wins over another name's rehash, as assign() tries it first
+        private static final Map<Integer, String> LOCAL = new ConcurrentHashMap<>();
+        private static final Map<Integer, String> LOCAL_PROBED = new ConcurrentHashMap<>();
+        private static int localSynced;
+        
+        private final Map<Integer, String> names = new ConcurrentHashMap<>();
+        private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+        
+        public TagIdMap(String name) {
+            super(name);
+        }
+        
+        public static void load(World world) {
+            net.minecraft.world.storage.MapStorage storage = world.getMapStorage();
+            TagIdMap map = (TagIdMap) storage.getOrLoadData(TagIdMap.class, NAME);
+            if (map == null) {
+                map = new TagIdMap(NAME);
+                storage.setData(NAME, map);
+            }
+            current = map;
+            GENERATION.incrementAndGet();
+        }
+        
+        public static void unload() {
+            current = null;
+            GENERATION.incrementAndGet();
+        }
+        
+        /**
+         * Whether this thread may add to the map: it is loaded and we are on
+         * the logical server. In single player the client thread sees the
+         * integrated server's map too, but must not write to it.
+         */
+        public static boolean isWritable() {
+            return current != null &&
+                net.minecraftforge.fml.common.FMLCommonHandler.instance().getEffectiveSide().isServer();
+        }
+        
+        /** Changes whenever decoding could give different names. */
+        static int generation() {
+            return GENERATION.get();
+        }
+        
+        public static int encode(String tag) {
+            if (tag.startsWith("#")) {
+                try {
+                    return Integer.parseUnsignedInt(tag.substring(1), 16);
+                } catch (NumberFormatException e) {
+                    // An ordinary name that happens to start with '#'
+                }
+            }
+            TagIdMap map = current;
+            return map != null && isWritable() ? map.assign(tag) : hash(tag);
+        }
+        
+        public static String decode(int id) {
+            TagIdMap map = current;
+            String name = map != null ? map.names.get(id) : null;
+            if (name == null) {
+                name = LOCAL.get(id);
+            }
+            if (name == null && syncLocal()) {
+                name = LOCAL.get(id);
+            }
+            if (name == null) {
+                name = LOCAL_PROBED.get(id);
+            }
+            return name != null ? name : "#" + Integer.toHexString(id);
+        }
+        
+        static int hash(String tag) {
+            return hash(tag, 0);
+        }
+        
+        private static int hash(String tag, int probe) {
+            long hash = AutoTagCache.fnv(AutoTagCache.FNV_OFFSET, tag);
+            if (probe > 0) {
+                hash = AutoTagCache.fnv(hash, Integer.toString(probe));
+            }
+            return (int) (hash ^ (hash >>> 32));
+        }
+        
+        private synchronized int assign(String tag) {
+            Integer existing = ids.get(tag);
+            if (existing != null) return existing;
             
-            for (int i = 0; i < tagList.tagCount(); i++) {
-                tags.add(tagList.getStringTagAt(i));
+            int id = hash(tag);
+            for (int probe = 1; names.containsKey(id) && probe < PROBES; probe++) {
+                id = hash(tag, probe);
+            }
+            while (names.containsKey(id)) {
+                id++;
             }
+            names.put(id, tag);
+            ids.put(tag, id);
+            markDirty();
+            return id;
+        }
+        
+        private static synchronized boolean syncLocal() {
+            int size = TagRegistry.size();
+            if (size == localSynced) return false;
             
-            return tags;
+            for (int id = localSynced; id < size; id++) {
+                String tag = TagRegistry.name(id);
+                LOCAL.putIfAbsent(hash(tag), tag);
+                for (int probe = 1; probe < PROBES; probe++) {
+                    LOCAL_PROBED.putIfAbsent(hash(tag, probe), tag);
+                }
+            }
+            localSynced = size;
+            GENERATION.incrementAndGet();
+            return true;
         }
         
-        public static void setTags(ItemStack stack, List<String> tags) {
-            if (!stack.hasTagCompound()) {
-                stack.setTagCompound(new NBTTagCompound());
+        @Override
+        public void readFromNBT(NBTTagCompound compound) {
+            names.clear();
+            ids.clear();
+            NBTTagCompound stored = compound.getCompoundTag("ids");
+            for (String tag : stored.getKeySet()) {
+                int id = stored.getInteger(tag);
+                names.put(id, tag);
+                ids.put(tag, id);
+                TagRegistry.id(tag);
+            }
+        }
+        
+        @Override
+        public NBTTagCompound writeToNBT(NBTTagCompound compound) {
+            NBTTagCompound stored = new NBTTagCompound();
+            for (Map.Entry<String, Integer> entry : ids.entrySet()) {
+                stored.setInteger(entry.getKey(), entry.getValue());
+            }
+            compound.setTag("ids", stored);
+            return compound;
+        }
+    }
+    
+    // Immutable set of tag IDs, one bit per ID
+    public static final class TagSet {
+        public static final TagSet EMPTY = new TagSet(new long[0]);
+        
+        private final long[] words;
+        private final int size;
+        
+        private TagSet(long[] words) {
+            int length = words.length;
+            while (length > 0 && words[length - 1] == 0) {
+                length--;
+            }
+            this.words = length == words.length ? words : Arrays.copyOf(words, length);
+            
+            int bits = 0;
+            for (long word : this.words) {
+                bits += Long.bitCount(word);
             }
+            this.size = bits;
+        }
+        
+        /** Known tags only, for queries and lookups: unknown ones can't be on any stack. */
+        public static TagSet of(Collection<String> tags) {
+            if (tags.isEmpty()) return EMPTY;
             
-            NBTTagList tagList = new NBTTagList();
+            long[] words = new long[0];
             for (String tag : tags) {
-                tagList.appendTag(new net.minecraft.nbt.NBTTagString(tag));
+                int id = TagRegistry.find(tag);
+                if (id >= 0) {
+                    words = set(words, id);
+                }
             }
+            return new TagSet(words);
+        }
+        
+        /**
+         * Interns and collects tags stored on a stack. Unresolved "#" IDs
+         * from {@link TagIdMap#decode} are left out rather than registered.
+         */
+        public static TagSet intern(Collection<String> tags) {
+            if (tags.isEmpty()) return EMPTY;
             
-            stack.getTagCompound().setTag(TAG_KEY, tagList);
+            long[] words = new long[(TagRegistry.size() + 63) >>> 6];
+            for (String tag : tags) {
+                if (!tag.startsWith("#")) {
+                    words = set(words, TagRegistry.id(tag));
+                }
+            }
+            return new TagSet(words);
         }
         
-        public static void addTag(ItemStack stack, String tag) {
-            List<String> tags = getTags(stack);
-            if (!tags.contains(tag)) {
-                tags.add(tag);
-                setTags(stack, tags);
+        public static TagSet ofIds(int... ids) {
+            long[] words = new long[0];
+            for (int id : ids) {
+                words = set(words, id);
             }
+            return new TagSet(words);
         }
         
-        public static void addTags(ItemStack stack, List<String> newTags) {
-            List<String> tags = getTags(stack);
-            for (String tag : newTags) {
-                if (!tags.contains(tag)) {
-                    tags.add(tag);
+        private static long[] set(long[] words, int id) {
+            int word = id >>> 6;
+            if (word >= words.length) {
+                words = Arrays.copyOf(words, word + 1);
+            }
+            words[word] |= 1L << id;
+            return words;
+        }
+        
+        public boolean contains(int id) {
+            int word = id >>> 6;
+            return id >= 0 && word < words.length && (words[word] & (1L << id)) != 0;
+        }
+        
+        public boolean containsAny(TagSet other) {
+            int length = Math.min(words.length, other.words.length);
+            for (int i = 0; i < length; i++) {
+                if ((words[i] & other.words[i]) != 0) return true;
+            }
+            return false;
+        }
+        
+        public boolean containsAll(TagSet other) {
+            // Both are trimmed, so a longer set has a bit this one lacks
+            if (other.words.length > words.length) return false;
+            for (int i = 0; i < other.words.length; i++) {
+                if ((other.words[i] & ~words[i]) != 0) return false;
+            }
+            return true;
+        }
+        
+        public boolean isEmpty() {
+            return size == 0;
+        }
+        
+        public int size() {
+            return size;
+        }
+        
+        /** The IDs in ascending order. */
+        public int[] toArray() {
+            int[] ids = new int[size];
+            int n = 0;
+            for (int i = 0; i < words.length; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    ids[n++] = (i << 6) + Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
                 }
             }
-            setTags(stack, tags);
+            return ids;
         }
         
-        public static void removeTag(ItemStack stack, String tag) {
-            List<String> tags = getTags(stack);
-            tags.remove(tag);
-            setTags(stack, tags);
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof TagSet && Arrays.equals(words, ((TagSet) o).words);
         }
         
-        public static void clearTags(ItemStack stack) {
-            if (stack.hasTagCompound()) {
-                stack.getTagCompound().removeTag(TAG_KEY);
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(words);
+        }
+    }
+    
+    // Decoded tags per NBT compound, held weakly and matched by identity
+    static final class DecodedTagCache {
+        private Entry[] table = new Entry[64];
+        private int size;
+        private final java.lang.ref.ReferenceQueue<NBTTagCompound> collected =
+            new java.lang.ref.ReferenceQueue<>();
+        
+        static final class Entry extends java.lang.ref.WeakReference<NBTTagCompound> {
+            final int hash;
+            // Change stamp: the stored tag instance, a hash of its contents and the ID map it was
+            // resolved with. Hashing the IDs is much cheaper than decoding them and also catches
+            // entries replaced in place, which keep the instance and the length
+            final net.minecraft.nbt.NBTBase stored;
+            final int contentHash;
+            final int generation;
+            final List<String> names;
+            final TagSet tags;
+            Entry next;
+            
+            Entry(NBTTagCompound compound, int hash, net.minecraft.nbt.NBTBase stored, List<String> names,
+                  TagSet tags, java.lang.ref.ReferenceQueue<NBTTagCompound> queue) {
+                super(compound, queue);
+                this.hash = hash;
+                this.stored = stored;
+                this.contentHash = stored.hashCode();
+                this.generation = TagIdMap.generation();
+                this.names = names;
+                this.tags = tags;
+            }
+            
+            boolean isCurrent(net.minecraft.nbt.NBTBase stored) {
+                return this.stored == stored && contentHash == stored.hashCode() &&
+                    generation == TagIdMap.generation();
             }
         }
         
-        public static boolean hasTag(ItemStack stack, String tag) {
-            return getTags(stack).contains(tag);
+        synchronized Entry get(NBTTagCompound compound) {
+            int hash = System.identityHashCode(compound);
+            for (Entry e = table[hash & (table.length - 1)]; e != null; e = e.next) {
+                if (e.hash == hash && e.get() == compound) return e;
+            }
+            return null;
         }
         
-        public static boolean matchesAnyTag(ItemStack stack, List<String> searchTags) {
-            List<String> itemTags = getTags(stack);
-            for (String searchTag : searchTags) {
-                if (itemTags.contains(searchTag)) {
-                    return true;
+        synchronized Entry put(NBTTagCompound compound, net.minecraft.nbt.NBTBase stored, List<String> names,
+                               TagSet tags) {
+            expunge();
+            remove(compound);
+            
+            int hash = System.identityHashCode(compound);
+            Entry entry = new Entry(compound, hash, stored, names, tags, collected);
+            int bucket = hash & (table.length - 1);
+            entry.next = table[bucket];
+            table[bucket] = entry;
+            if (++size > table.length * 3 / 4) {
+                resize();
+            }
+            return entry;
+        }
+        
+        synchronized void invalidate(NBTTagCompound compound) {
+            remove(compound);
+        }
+        
+        synchronized int size() {
+            expunge();
+            return size;
+        }
+        
+        private void remove(NBTTagCompound key) {
+            int hash = System.identityHashCode(key);
+            int bucket = hash & (table.length - 1);
+            Entry previous = null;
+            for (Entry e = table[bucket]; e != null; previous = e, e = e.next) {
+                if (e.hash == hash && e.get() == key) {
+                    if (previous == null) {
+                        table[bucket] = e.next;
+                    } else {
+                        previous.next = e.next;
+                    }
+                    size--;
+                    return;
+                }
+            }
+        }
+        
+        private void expunge() {
+            java.lang.ref.Reference<? extends NBTTagCompound> reference;
+            while ((reference = collected.poll()) != null) {
+                Entry entry = (Entry) reference;
+                int bucket = entry.hash & (table.length - 1);
+                Entry previous = null;
+                for (Entry e = table[bucket]; e != null; previous = e, e = e.next) {
+                    if (e == entry) {
+                        if (previous == null) {
+                            table[bucket] = e.next;
+                        } else {
+                            previous.next = e.next;
+                        }
+                        size--;
+                        break;
+                    }
+                }
+            }
+        }
+        
+        private void resize() {
+            Entry[] old = table;
+            table = new Entry[old.length * 2];
+            for (Entry head : old) {
+                for (Entry e = head; e != null; ) {
+                    Entry next = e.next;
+                    int bucket = e.hash & (table.length - 1);
+                    e.next = table[bucket];
+                    table[bucket] = e;
+                    e = next;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Server-side inverted index from tag ID to the container slots holding
+     * a stack with that tag. Each posting packs an inventory ID and a slot
+     * index into one long, and every posting list is kept sorted, so AND, OR
+     * and NOT are linear merges over the lists involved and never touch the
+     * rest of the index.
+     *
+     * Inventories are indexed through a container listener: player
+     * inventories from login, tile entity inventories (chests and other
+     * storage) while they are open. A closed chest keeps the postings it had
+     * when last seen; hoppers and other automation can change it unseen, so
+     * each inventory records when it was last synced, and it is re-synced
+     * from its contents when opened again. A tile entity's postings are
+     * dropped when its block is broken or its chunk unloads. An inventory
+     * with no tagged slots that no container shows is forgotten and its ID
+     * reused. Only the server thread reads or writes the index.
+     */
+    public static class TagIndex {
+        private final Map<Integer, PostingList> postings = new HashMap<>();
+        private final PostingList occupied = new PostingList();
+        private final Map<InventoryRef, Integer> inventoryIds = new HashMap<>();
+        private final List<InventoryRef> inventories = new ArrayList<>(); // By inventory ID, null once freed
+        private final List<Map<Integer, TagSet>> slotTags = new ArrayList<>(); // Tagged slots by inventory ID
+        private final ArrayDeque<Integer> freeIds = new ArrayDeque<>();
+        private final Map<InventoryRef, Integer> watchers = new HashMap<>();
+        private final Map<InventoryRef, Long> syncedAt = new HashMap<>();
+        private final Map<InventoryRef, Set<UUID>> openers = new HashMap<>();
+        private final Map<Long, Set<InventoryRef>> byChunk = new HashMap<>();
+        private final IContainerListener listener = new Listener();
+        
+        /** Where an indexed inventory lives: a tile entity position or a player. */
+        public static final class InventoryRef {
+            public final int dimension;
+            public final BlockPos pos;
+            public final UUID player;
+            
+            InventoryRef(int dimension, BlockPos pos, UUID player) {
+                this.dimension = dimension;
+                this.pos = pos;
+                this.player = player;
+            }
+            
+            @Override
+            public boolean equals(Object o) {
+                if (!(o instanceof InventoryRef)) return false;
+                InventoryRef other = (InventoryRef) o;
+                return player != null ? player.equals(other.player) :
+                    other.player == null && dimension == other.dimension && pos.equals(other.pos);
+            }
+            
+            @Override
+            public int hashCode() {
+                return player != null ? player.hashCode() : dimension * 31 + pos.hashCode();
+            }
+            
+            @Override
+            public String toString() {
+                return player != null ? "inventory" :
+                    String.format("(%d, %d, %d) in dimension %d", pos.getX(), pos.getY(), pos.getZ(), dimension);
+            }
+        }
+        
+        /** Starts indexing a container's inventories; removed again when it closes. */
+        public void watch(Container container, EntityPlayer player) {
+            Set<InventoryRef> refs = refsOf(container);
+            for (InventoryRef ref : refs) {
+                if (ref.player == null) {
+                    openers.computeIfAbsent(ref, k -> new HashSet<>()).add(player.getUniqueID());
+                    byChunk.computeIfAbsent(chunkKey(ref.pos.getX() >> 4, ref.pos.getZ() >> 4), k -> new HashSet<>()).add(ref);
+                }
+                if (!watchers.containsKey(ref)) {
+                    removeInventory(ref); // Whatever changed while closed is re-read below
+                }
+            }
+            try {
+                container.addListener(listener); // Sends all contents once
+            } catch (IllegalArgumentException alreadyWatched) {
+                return; // Opened again before the close event arrived
+            }
+            for (InventoryRef ref : refs) {
+                watchers.merge(ref, 1, Integer::sum);
+                syncedAt.put(ref, System.currentTimeMillis());
+            }
+        }
+        
+        public void unwatch(Container container) {
+            container.removeListener(listener);
+            for (InventoryRef ref : refsOf(container)) {
+                if (watchers.computeIfPresent(ref, (k, count) -> count > 1 ? count - 1 : null) == null) {
+                    syncedAt.put(ref, System.currentTimeMillis()); // Contents as of closing
+                    forgetIfEmpty(ref);
+                }
+            }
+        }
+        
+        /** Drops every posting of an inventory that no longer exists or is offline. */
+        public void removeInventory(InventoryRef ref) {
+            Integer id = inventoryIds.get(ref);
+            if (id == null) return;
+            
+            for (Integer slot : new ArrayList<>(slotTags.get(id).keySet())) {
+                index(id, slot, TagSet.EMPTY);
+            }
+            if (!watchers.containsKey(ref)) {
+                syncedAt.remove(ref);
+            }
+            forgetIfEmpty(ref);
+        }
+        
+        // Frees the ID of an inventory with no tagged slots that no container shows
+        private void forgetIfEmpty(InventoryRef ref) {
+            Integer id = inventoryIds.get(ref);
+            if (id == null || watchers.containsKey(ref) || !slotTags.get(id).isEmpty()) return;
+            
+            inventoryIds.remove(ref);
+            inventories.set(id, null);
+            slotTags.set(id, null);
+            freeIds.push(id);
+            syncedAt.remove(ref);
+        }
+        
+        /** Drops a broken block's inventory. */
+        public void removeBlock(int dimension, BlockPos pos) {
+            InventoryRef ref = new InventoryRef(dimension, pos, null);
+            Set<InventoryRef> chunk = byChunk.get(chunkKey(pos.getX() >> 4, pos.getZ() >> 4));
+            if (chunk != null) {
+                chunk.remove(ref);
+            }
+            watchers.remove(ref);
+            openers.remove(ref);
+            removeInventory(ref);
+        }
+        
+        /** Drops the inventories of tile entities in an unloaded chunk. */
+        public void removeChunk(int dimension, int chunkX, int chunkZ) {
+            Set<InventoryRef> chunk = byChunk.get(chunkKey(chunkX, chunkZ));
+            if (chunk == null) return;
+            
+            for (Iterator<InventoryRef> it = chunk.iterator(); it.hasNext(); ) {
+                InventoryRef ref = it.next();
+                if (ref.dimension == dimension) {
+                    it.remove();
+                    watchers.remove(ref);
+                    openers.remove(ref);
+                    removeInventory(ref);
+                }
+            }
+            if (chunk.isEmpty()) {
+                byChunk.remove(chunkKey(chunkX, chunkZ));
+            }
+        }
+        
+        /** Whether the player has opened this inventory, or it is their own. */
+        public boolean hasOpened(InventoryRef ref, UUID player) {
+            return ref.player != null ? ref.player.equals(player) :
+                openers.getOrDefault(ref, Collections.emptySet()).contains(player);
+        }
+        
+        /** Whether a container showing this inventory is open, so its postings are current. */
+        public boolean isLive(InventoryRef ref) {
+            return watchers.containsKey(ref);
+        }
+        
+        /** When the postings of an inventory were last known to match it, or 0. */
+        public long lastSynced(InventoryRef ref) {
+            return syncedAt.getOrDefault(ref, 0L);
+        }
+        
+        public void clear() {
+            postings.clear();
+            occupied.clear();
+            inventoryIds.clear();
+            inventories.clear();
+            slotTags.clear();
+            freeIds.clear();
+            watchers.clear();
+            syncedAt.clear();
+            openers.clear();
+            byChunk.clear();
+        }
+        
+        public InventoryRef inventory(long posting) {
+            return inventories.get((int) (posting >>> 32));
+        }
+        
+        public static int slot(long posting) {
+            return (int) posting;
+        }
+        
+        /** Number of tagged slots indexed. */
+        public int size() {
+            return occupied.size;
+        }
+        
+        /** Sorted postings of every slot matching the query. */
+        public long[] find(TagQuery query) {
+            return query.evaluate(this);
+        }
+        
+        long[] postings(String tag) {
+            int id = TagRegistry.find(tag);
+            PostingList list = id >= 0 ? postings.get(id) : null;
+            return list != null ? list.toArray() : new long[0];
+        }
+        
+        long[] all() {
+            return occupied.toArray();
+        }
+        
+        void update(IInventory inventory, int slot, ItemStack stack) {
+            InventoryRef ref = refOf(inventory);
+            if (ref == null) return; // Crafting grids and other transient inventories
+            
+            TagSet tags = stack.isEmpty() ? TagSet.EMPTY : ItemTagManager.getTagSet(stack);
+            Integer id = inventoryIds.get(ref);
+            if (id == null) {
+                if (tags.isEmpty()) return;
+                id = freeIds.isEmpty() ? inventories.size() : freeIds.pop();
+                if (id == inventories.size()) {
+                    inventories.add(ref);
+                    slotTags.add(new HashMap<>());
+                } else {
+                    inventories.set(id, ref);
+                    slotTags.set(id, new HashMap<>());
+                }
+                inventoryIds.put(ref, id);
+            }
+            index(id, slot, tags);
+        }
+        
+        private void index(int inventory, int slot, TagSet tags) {
+            Map<Integer, TagSet> slots = slotTags.get(inventory);
+            TagSet previous = slots.getOrDefault(slot, TagSet.EMPTY);
+            if (previous.equals(tags)) return;
+            
+            long posting = ((long) inventory << 32) | (slot & 0xFFFFFFFFL);
+            for (int id : previous.toArray()) {
+                if (!tags.contains(id)) {
+                    PostingList list = postings.get(id);
+                    list.remove(posting);
+                    if (list.size == 0) {
+                        postings.remove(id);
+                    }
+                }
+            }
+            for (int id : tags.toArray()) {
+                if (!previous.contains(id)) {
+                    postings.computeIfAbsent(id, k -> new PostingList()).add(posting);
+                }
+            }
+            
+            if (tags.isEmpty()) {
+                slots.remove(slot);
+                occupied.remove(posting);
+            } else {
+                slots.put(slot, tags);
+                occupied.add(posting);
+            }
+        }
+        
+        private static Set<InventoryRef> refsOf(Container container) {
+            Set<InventoryRef> refs = new HashSet<>();
+            for (Slot slot : container.inventorySlots) {
+                InventoryRef ref = refOf(slot.inventory);
+                if (ref != null) {
+                    refs.add(ref);
+                }
+            }
+            return refs;
+        }
+        
+        private static long chunkKey(int chunkX, int chunkZ) {
+            return net.minecraft.util.math.ChunkPos.asLong(chunkX, chunkZ);
+        }
+        
+        private static InventoryRef refOf(IInventory inventory) {
+            if (inventory instanceof InventoryPlayer) {
+                return new InventoryRef(0, null, ((InventoryPlayer) inventory).player.getUniqueID());
+            }
+            if (inventory instanceof TileEntity) {
+                TileEntity tile = (TileEntity) inventory;
+                if (tile.getWorld() == null) return null;
+                return new InventoryRef(tile.getWorld().provider.getDimension(), tile.getPos(), null);
+            }
+            return null;
+        }
+        
+        private class Listener implements IContainerListener {
+            @Override
+            public void sendAllContents(Container container, NonNullList<ItemStack> stacks) {
+                for (int i = 0; i < stacks.size(); i++) {
+                    sendSlotContents(container, i, stacks.get(i));
+                }
+            }
+            
+            @Override
+            public void sendSlotContents(Container container, int slotNumber, ItemStack stack) {
+                Slot slot = container.inventorySlots.get(slotNumber);
+                update(slot.inventory, slot.getSlotIndex(), stack);
+            }
+            
+            @Override
+            public void sendWindowProperty(Container container, int varToUpdate, int newValue) {
+            }
+            
+            @Override
+            public void sendAllWindowProperties(Container container, IInventory inventory) {
+            }
+        }
+        
+        // Sorted, growable array of postings
+        static final class PostingList {
+            private long[] postings = new long[8];
+            private int size;
+            
+            void add(long posting) {
+                int at = Arrays.binarySearch(postings, 0, size, posting);
+                if (at >= 0) return;
+                at = -at - 1;
+                if (size == postings.length) {
+                    postings = Arrays.copyOf(postings, size * 2);
+                }
+                System.arraycopy(postings, at, postings, at + 1, size - at);
+                postings[at] = posting;
+                size++;
+            }
+            
+            void remove(long posting) {
+                int at = Arrays.binarySearch(postings, 0, size, posting);
+                if (at < 0) return;
+                System.arraycopy(postings, at + 1, postings, at, size - at - 1);
+                size--;
+            }
+            
+            void clear() {
+                size = 0;
+            }
+            
+            long[] toArray() {
+                return Arrays.copyOf(postings, size);
+            }
+        }
+    }
+    
+    /**
+     * A parsed tag query. Tags combine with AND, OR and NOT (also written
+     * {@code &}, {@code |} and {@code !} or {@code -}), with parentheses for
+     * grouping; adjacent terms without an operator are ANDed, and AND binds
+     * tighter than OR, e.g. {@code rarity:legendary (purpose:weapon | purpose:armor) !element:dark}.
+     */
+    public abstract static class TagQuery {
+        abstract long[] evaluate(TagIndex index);
+        
+        /**
+         * Evaluates this against one stack's tags. Like the {@link TagIndex},
+         * only tags stored on the stack count, not its item's auto-tags.
+         */
+        public abstract boolean matches(TagSet tags);
+        
+        /** Whether evaluating this needs every posting as a starting set. */
+        boolean isNegation() {
+            return false;
+        }
+        
+        public static TagQuery parse(String query) {
+            Parser parser = new Parser(query);
+            TagQuery parsed = parser.or();
+            if (parser.peek() != null) {
+                throw new IllegalArgumentException("Unexpected '" + parser.peek() + "'");
+            }
+            return parsed;
+        }
+        
+        static final class Tag extends TagQuery {
+            final String tag;
+            
+            Tag(String tag) {
+                this.tag = tag;
+            }
+            
+            @Override
+            long[] evaluate(TagIndex index) {
+                return index.postings(tag);
+            }
+            
+            @Override
+            public boolean matches(TagSet tags) {
+                return tags.contains(TagRegistry.find(tag));
+            }
+        }
+        
+        static final class Not extends TagQuery {
+            final TagQuery operand;
+            
+            Not(TagQuery operand) {
+                this.operand = operand;
+            }
+            
+            @Override
+            boolean isNegation() {
+                return true;
+            }
+            
+            @Override
+            long[] evaluate(TagIndex index) {
+                return difference(index.all(), operand.evaluate(index));
+            }
+            
+            @Override
+            public boolean matches(TagSet tags) {
+                return !operand.matches(tags);
+            }
+        }
+        
+        static final class And extends TagQuery {
+            final List<TagQuery> operands;
+            
+            And(List<TagQuery> operands) {
+                this.operands = operands;
+            }
+            
+            @Override
+            long[] evaluate(TagIndex index) {
+                // Intersect the positive terms first, then subtract the negated ones
+                long[] result = null;
+                for (TagQuery operand : operands) {
+                    if (!operand.isNegation()) {
+                        long[] postings = operand.evaluate(index);
+                        result = result == null ? postings : intersect(result, postings);
+                    }
+                }
+                if (result == null) {
+                    result = index.all();
+                }
+                for (TagQuery operand : operands) {
+                    if (operand.isNegation()) {
+                        result = difference(result, ((Not) operand).operand.evaluate(index));
+                    }
+                }
+                return result;
+            }
+            
+            @Override
+            public boolean matches(TagSet tags) {
+                for (TagQuery operand : operands) {
+                    if (!operand.matches(tags)) return false;
+                }
+                return true;
+            }
+        }
+        
+        static final class Or extends TagQuery {
+            final List<TagQuery> operands;
+            
+            Or(List<TagQuery> operands) {
+                this.operands = operands;
+            }
+            
+            @Override
+            long[] evaluate(TagIndex index) {
+                long[] result = new long[0];
+                for (TagQuery operand : operands) {
+                    result = union(result, operand.evaluate(index));
+                }
+                return result;
+            }
+            
+            @Override
+            public boolean matches(TagSet tags) {
+                for (TagQuery operand : operands) {
+                    if (operand.matches(tags)) return true;
+                }
+                return false;
+            }
+        }
+        
+        static long[] intersect(long[] a, long[] b) {
+            long[] out = new long[Math.min(a.length, b.length)];
+            int i = 0, j = 0, n = 0;
+            while (i < a.length && j < b.length) {
+                if (a[i] < b[j]) i++;
+                else if (a[i] > b[j]) j++;
+                else {
+                    out[n++] = a[i++];
+                    j++;
+                }
+            }
+            return Arrays.copyOf(out, n);
+        }
+        
+        static long[] union(long[] a, long[] b) {
+            long[] out = new long[a.length + b.length];
+            int i = 0, j = 0, n = 0;
+            while (i < a.length && j < b.length) {
+                if (a[i] < b[j]) out[n++] = a[i++];
+                else if (a[i] > b[j]) out[n++] = b[j++];
+                else {
+                    out[n++] = a[i++];
+                    j++;
+                }
+            }
+            while (i < a.length) out[n++] = a[i++];
+            while (j < b.length) out[n++] = b[j++];
+            return Arrays.copyOf(out, n);
+        }
+        
+        static long[] difference(long[] a, long[] b) {
+            long[] out = new long[a.length];
+            int i = 0, j = 0, n = 0;
+            while (i < a.length) {
+                while (j < b.length && b[j] < a[i]) j++;
+                if (j < b.length && b[j] == a[i]) {
+                    i++;
+                } else {
+                    out[n++] = a[i++];
+                }
+            }
+            return Arrays.copyOf(out, n);
+        }
+        
+        // Recursive descent: or := and ('OR' and)*, and := not ('AND'? not)*, not := 'NOT' not | atom
+        private static final class Parser {
+            private final List<String> tokens = new ArrayList<>();
+            private int position;
+            
+            Parser(String query) {
+                java.util.regex.Matcher matcher =
+                    java.util.regex.Pattern.compile("[()&|!]|[^\\s()&|!]+").matcher(query);
+                while (matcher.find()) {
+                    tokens.add(matcher.group());
+                }
+                if (tokens.isEmpty()) {
+                    throw new IllegalArgumentException("Empty query");
+                }
+            }
+            
+            String peek() {
+                return position < tokens.size() ? tokens.get(position) : null;
+            }
+            
+            TagQuery or() {
+                List<TagQuery> operands = new ArrayList<>();
+                operands.add(and());
+                while ("|".equals(peek()) || "OR".equalsIgnoreCase(peek())) {
+                    position++;
+                    operands.add(and());
+                }
+                return operands.size() == 1 ? operands.get(0) : new Or(operands);
+            }
+            
+            TagQuery and() {
+                List<TagQuery> operands = new ArrayList<>();
+                operands.add(not());
+                while (true) {
+                    String next = peek();
+                    if ("&".equals(next) || "AND".equalsIgnoreCase(next)) {
+                        position++;
+                    } else if (next == null || ")".equals(next) || "|".equals(next) || "OR".equalsIgnoreCase(next)) {
+                        break;
+                    }
+                    operands.add(not());
+                }
+                return operands.size() == 1 ? operands.get(0) : new And(operands);
+            }
+            
+            TagQuery not() {
+                String next = peek();
+                if ("!".equals(next) || "NOT".equalsIgnoreCase(next)) {
+                    position++;
+                    return new Not(not());
+                }
+                if (next != null && next.length() > 1 && next.startsWith("-")) {
+                    position++;
+                    return new Not(new Tag(next.substring(1).toLowerCase()));
+                }
+                return atom();
+            }
+            
+            TagQuery atom() {
+                String next = peek();
+                if (next == null) {
+                    throw new IllegalArgumentException("Query ends early");
+                }
+                position++;
+                if ("(".equals(next)) {
+                    TagQuery inner = or();
+                    if (!")".equals(peek())) {
+                        throw new IllegalArgumentException("Missing ')'");
+                    }
+                    position++;
+                    return inner;
+                }
+                if (")".equals(next) || "&".equals(next) || "|".equals(next)) {
+                    throw new IllegalArgumentException("Unexpected '" + next + "'");
+                }
+                if (next.indexOf(':') < 0) {
+                    throw new IllegalArgumentException("Tags are written category:tag, not '" + next + "'");
+                }
+                return new Tag(next.toLowerCase());
+            }
+        }
+    }
+    
+    // Core Tag Manager
+    public static class ItemTagManager {
+        private static final String TAG_KEY = "ThreeTags"; // Legacy string list, migrated on read
+        private static final String ID_KEY = "ThreeTagIds";
+        private static final DecodedTagCache DECODED = new DecodedTagCache();
+        
+        public static boolean hasTags(ItemStack stack) {
+            return stack.hasTagCompound() &&
+                   (stack.getTagCompound().hasKey(ID_KEY) || stack.getTagCompound().hasKey(TAG_KEY));
+        }
+        
+        /**
+         * The stack's tags, decoded once per NBT compound and reused until
+         * the stored tags change. The returned list is unmodifiable.
+         */
+        public static List<String> getTags(ItemStack stack) {
+            DecodedTagCache.Entry decoded = decode(stack);
+            return decoded != null ? decoded.names : Collections.emptyList();
+        }
+        
+        private static DecodedTagCache.Entry decode(ItemStack stack) {
+            if (!stack.hasTagCompound()) return null;
+            
+            NBTTagCompound compound = stack.getTagCompound();
+            net.minecraft.nbt.NBTBase stored = compound.getTag(ID_KEY);
+            if (stored == null) {
+                stored = compound.getTag(TAG_KEY);
+            }
+            if (!(stored instanceof net.minecraft.nbt.NBTTagIntArray) && !(stored instanceof NBTTagList)) return null;
+            
+            // Also catches edits made to the NBT without going through this class
+            DecodedTagCache.Entry decoded = DECODED.get(compound);
+            if (decoded != null && decoded.isCurrent(stored)) return decoded;
+            
+            List<String> tags;
+            if (stored instanceof net.minecraft.nbt.NBTTagIntArray) {
+                int[] ids = ((net.minecraft.nbt.NBTTagIntArray) stored).getIntArray();
+                tags = new ArrayList<>(ids.length);
+                for (int id : ids) {
+                    tags.add(TagIdMap.decode(id));
+                }
+            } else {
+                NBTTagList tagList = (NBTTagList) stored;
+                tags = new ArrayList<>(tagList.tagCount());
+                if (tagList.getTagType() == 8) {
+                    for (int i = 0; i < tagList.tagCount(); i++) {
+                        tags.add(tagList.getStringTagAt(i));
+                    }
+                }
+                // Migrate on the logical server only, where the world ID map can take new names
+                if (TagIdMap.isWritable()) {
+                    stored = encode(tags);
+                    compound.setTag(ID_KEY, stored);
+                    compound.removeTag(TAG_KEY);
+                }
+            }
+            return DECODED.put(compound, stored, Collections.unmodifiableList(tags), TagSet.intern(tags));
+        }
+        
+        private static net.minecraft.nbt.NBTTagIntArray encode(List<String> tags) {
+            int[] ids = new int[tags.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = TagIdMap.encode(tags.get(i));
+            }
+            return new net.minecraft.nbt.NBTTagIntArray(ids);
+        }
+        
+        public static void setTags(ItemStack stack, List<String> tags) {
+            if (!stack.hasTagCompound()) {
+                stack.setTagCompound(new NBTTagCompound());
+            }
+            
+            stack.getTagCompound().setTag(ID_KEY, encode(tags));
+            stack.getTagCompound().removeTag(TAG_KEY);
+            DECODED.invalidate(stack.getTagCompound());
+        }
+        
+        public static void addTag(ItemStack stack, String tag) {
+            List<String> tags = new ArrayList<>(getTags(stack));
+            if (!tags.contains(tag)) {
+                tags.add(tag);
+                setTags(stack, tags);
+            }
+        }
+        
+        public static void addTags(ItemStack stack, List<String> newTags) {
+            List<String> tags = new ArrayList<>(getTags(stack));
+            for (String tag : newTags) {
+                if (!tags.contains(tag)) {
+                    tags.add(tag);
+                }
+            }
+            setTags(stack, tags);
+        }
+        
+        public static void removeTag(ItemStack stack, String tag) {
+            List<String> tags = new ArrayList<>(getTags(stack));
+            tags.remove(tag);
+            setTags(stack, tags);
+        }
+        
+        public static void clearTags(ItemStack stack) {
+            if (stack.hasTagCompound()) {
+                stack.getTagCompound().removeTag(ID_KEY);
+                stack.getTagCompound().removeTag(TAG_KEY);
+                DECODED.invalidate(stack.getTagCompound());
+            }
+        }
+        
+        /** The stack's tags as a bitset, from the same cache as {@link #getTags}. */
+        public static TagSet getTagSet(ItemStack stack) {
+            DecodedTagCache.Entry decoded = decode(stack);
+            return decoded != null ? decoded.tags : TagSet.EMPTY;
+        }
+        
+        public static boolean hasTag(ItemStack stack, String tag) {
+            return getTagSet(stack).contains(TagRegistry.find(tag));
+        }
+        
+        public static boolean matchesAnyTag(ItemStack stack, List<String> searchTags) {
+            return matchesAnyTag(stack, TagSet.of(searchTags));
+        }
+        
+        public static boolean matchesAnyTag(ItemStack stack, TagSet searchTags) {
+            return getTagSet(stack).containsAny(searchTags);
+        }
+        
+        public static boolean matchesAllTags(ItemStack stack, List<String> searchTags) {
+            for (String tag : searchTags) {
+                if (TagRegistry.find(tag) < 0) return false; // Not on any stack, so not on this one
+            }
+            return matchesAllTags(stack, TagSet.of(searchTags));
+        }
+        
+        public static boolean matchesAllTags(ItemStack stack, TagSet searchTags) {
+            return getTagSet(stack).containsAll(searchTags);
+        }
+        
+        public static List<String> getAutoTags(Item item) {
+            // Return pre-computed auto-tags
+            return ItemAutoTagCache.getAutoTags(item);
+        }
+        
+        public static TagSet getAutoTagSet(Item item) {
+            return ItemAutoTagCache.getAutoTagSet(item);
+        }
+        
+        public static void setAutoTags(Item item, List<String> tags) {
+            ItemAutoTagCache.setAutoTags(item, tags);
+        }
+        
+        public static String getTagDisplay(String fullTag) {
+            String[] parts = fullTag.split(":");
+            if (parts.length == 2) {
+                String category = parts[0];
+                String tag = parts[1];
+                return TAG_CATEGORIES.containsKey(category) ? 
+                    TAG_CATEGORIES.get(category).name + ": " + tag : fullTag;
+            }
+            return fullTag;
+        }
+        
+        public static int getTagColor(String fullTag) {
+            String[] parts = fullTag.split(":");
+            if (parts.length == 2) {
+                String category = parts[0];
+                String tag = parts[1];
+                if (TAG_CATEGORIES.containsKey(category)) {
+                    return TAG_CATEGORIES.get(category).getTagColor(tag);
+                }
+            }
+            return 0xFFFFFF;
+        }
+    }
+    
+    /**
+     * Auto-tags per item, indexed by numeric item ID. Writers build a new
+     * snapshot array and publish it through a volatile field, so tooltip and
+     * server threads read without locking. Entries are immutable. Item IDs
+     * are remapped when a world loads or a server is joined, so the entries
+     * are kept per item as well and the snapshot is rebuilt on each remap.
+     */
+    public static class ItemAutoTagCache {
+        private static final AutoTags[] EMPTY = new AutoTags[0];
+        private static volatile AutoTags[] snapshot = EMPTY;
+        private static final Map<Item, AutoTags> byItem = new IdentityHashMap<>(); // Guarded by the class
+        
+        static final class AutoTags {
+            final int[] ids;
+            final List<String> names;
+            final TagSet tags;
+            
+            AutoTags(List<String> tags) {
+                ids = new int[tags.size()];
+                String[] interned = new String[ids.length];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = TagRegistry.id(tags.get(i));
+                    interned[i] = TagRegistry.name(ids[i]);
+                }
+                names = Collections.unmodifiableList(Arrays.asList(interned));
+                this.tags = TagSet.ofIds(ids);
+            }
+        }
+        
+        private static AutoTags entry(Item item) {
+            int id = Item.getIdFromItem(item);
+            AutoTags[] current = snapshot;
+            return id >= 0 && id < current.length ? current[id] : null;
+        }
+        
+        public static List<String> getAutoTags(Item item) {
+            AutoTags entry = entry(item);
+            return entry != null ? entry.names : Collections.emptyList();
+        }
+        
+        public static TagSet getAutoTagSet(Item item) {
+            AutoTags entry = entry(item);
+            return entry != null ? entry.tags : TagSet.EMPTY;
+        }
+        
+        public static void setAutoTags(Item item, List<String> tags) {
+            setAutoTags(Collections.singletonMap(item, tags));
+        }
+        
+        /** Publishes many items with one copy of the snapshot. */
+        public static synchronized void setAutoTags(Map<Item, List<String>> tags) {
+            AutoTags[] current = snapshot;
+            int length = current.length;
+            for (Item item : tags.keySet()) {
+                length = Math.max(length, Item.getIdFromItem(item) + 1);
+            }
+            AutoTags[] next = Arrays.copyOf(current, length);
+            for (Map.Entry<Item, List<String>> entry : tags.entrySet()) {
+                AutoTags autoTags = entry.getValue().isEmpty() ? null : new AutoTags(entry.getValue());
+                if (autoTags != null) {
+                    byItem.put(entry.getKey(), autoTags);
+                } else {
+                    byItem.remove(entry.getKey());
+                }
+                int id = Item.getIdFromItem(entry.getKey());
+                if (id >= 0) {
+                    next[id] = autoTags;
+                }
+            }
+            snapshot = next;
+        }
+        
+        /** Rebuilds the snapshot under the current item IDs. */
+        public static synchronized void reindex() {
+            int length = 0;
+            for (Item item : byItem.keySet()) {
+                length = Math.max(length, Item.getIdFromItem(item) + 1);
+            }
+            AutoTags[] next = new AutoTags[length];
+            for (Map.Entry<Item, AutoTags> entry : byItem.entrySet()) {
+                int id = Item.getIdFromItem(entry.getKey());
+                if (id >= 0) {
+                    next[id] = entry.getValue();
+                }
+            }
+            snapshot = next;
+        }
+        
+        public static synchronized void clear() {
+            byItem.clear();
+            snapshot = EMPTY;
+        }
+    }
+    
+    /**
+     * Suggestions over every registered tag, custom ones included. Tags are
+     * indexed by character as they are registered; a query starts from the
+     * postings of its first character and each keystroke refines the
+     * candidates of the query before it. Matching is fuzzy (the query's
+     * characters in order), ranked by match quality, then by usage.
+     * Not thread-safe; the tag GUI uses it from the client thread.
+     */
+    public static final class TagSuggestionIndex {
+        private final List<String> lowerNames = new ArrayList<>(); // By tag ID
+        private final Map<Character, IdList> postings = new HashMap<>();
+        
+        // Candidates per prefix of the current query: candidates.get(i) matches query[0..i]
+        private final StringBuilder query = new StringBuilder();
+        private final List<int[]> candidates = new ArrayList<>();
+        private List<String> ranked = Collections.emptyList();
+        private int rankedLimit = -1;
+        private long rankedUsage = -1;
+        
+        private static final class IdList {
+            int[] ids = new int[8];
+            int size;
+            
+            void add(int id) {
+                if (size == ids.length) {
+                    ids = Arrays.copyOf(ids, size * 2);
                 }
+                ids[size++] = id;
             }
-            return false;
         }
         
-        public static boolean matchesAllTags(ItemStack stack, List<String> searchTags) {
-            List<String> itemTags = getTags(stack);
-            return itemTags.containsAll(searchTags);
+        public List<String> suggest(String text, PlayerTagData usage, int limit) {
+            String lower = text.toLowerCase(Locale.ROOT);
+            if (sync()) {
+                query.setLength(0);
+                candidates.clear();
+            }
+            
+            int common = 0;
+            while (common < query.length() && common < lower.length() && query.charAt(common) == lower.charAt(common)) {
+                common++;
+            }
+            long usageVersion = usage != null ? usage.getUsageVersion() : 0;
+            if (common == query.length() && common == lower.length() &&
+                rankedLimit == limit && rankedUsage == usageVersion) {
+                return ranked;
+            }
+            
+            // Backspace drops prefixes, typing refines the last candidates
+            query.setLength(common);
+            candidates.subList(common, candidates.size()).clear();
+            for (int i = common; i < lower.length(); i++) {
+                query.append(lower.charAt(i));
+                candidates.add(i == 0 ? seed(lower.charAt(0)) : refine(candidates.get(i - 1)));
+            }
+            
+            ranked = lower.isEmpty() ? Collections.emptyList() : rank(lower, candidates.get(lower.length() - 1), usage, limit);
+            rankedLimit = limit;
+            rankedUsage = usageVersion;
+            return ranked;
         }
         
-        public static List<String> getAutoTags(Item item) {
-            // Return pre-computed auto-tags
-            return ItemAutoTagCache.getAutoTags(item);
+        // Indexes tags registered since the last call
+        private boolean sync() {
+            int size = TagRegistry.size();
+            if (size == lowerNames.size()) return false;
+            
+            for (int id = lowerNames.size(); id < size; id++) {
+                String name = TagRegistry.name(id).toLowerCase(Locale.ROOT);
+                lowerNames.add(name);
+                Set<Character> seen = new HashSet<>();
+                for (int i = 0; i < name.length(); i++) {
+                    if (seen.add(name.charAt(i))) {
+                        postings.computeIfAbsent(name.charAt(i), k -> new IdList()).add(id);
+                    }
+                }
+            }
+            return true;
         }
         
-        public static void setAutoTags(Item item, List<String> tags) {
-            ItemAutoTagCache.setAutoTags(item, tags);
+        private int[] seed(char first) {
+            IdList list = postings.get(first);
+            return list != null ? Arrays.copyOf(list.ids, list.size) : new int[0];
         }
         
-        public static String getTagDisplay(String fullTag) {
-            String[] parts = fullTag.split(":");
-            if (parts.length == 2) {
-                String category = parts[0];
-                String tag = parts[1];
-                return TAG_CATEGORIES.containsKey(category) ? 
-                    TAG_CATEGORIES.get(category).name + ": " + tag : fullTag;
-            }
-            return fullTag;
+        private int[] refine(int[] previous) {
+            return filter(previous, previous.length);
         }
         
-        public static int getTagColor(String fullTag) {
-            String[] parts = fullTag.split(":");
-            if (parts.length == 2) {
-                String category = parts[0];
-                String tag = parts[1];
-                if (TAG_CATEGORIES.containsKey(category)) {
-                    return TAG_CATEGORIES.get(category).getTagColor(tag);
+        private int[] filter(int[] ids, int count) {
+            String current = query.toString();
+            int[] matched = new int[count];
+            int size = 0;
+            for (int i = 0; i < count; i++) {
+                if (subsequence(current, lowerNames.get(ids[i]))) {
+                    matched[size++] = ids[i];
                 }
             }
-            return 0xFFFFFF;
+            return Arrays.copyOf(matched, size);
         }
-    }
-    
-    // Auto-tag cache
-    public static class ItemAutoTagCache {
-        private static final Map<Item, List<String>> CACHE = new HashMap<>();
         
-        public static List<String> getAutoTags(Item item) {
-            return CACHE.getOrDefault(item, Collections.emptyList());
+        private static boolean subsequence(String query, String name) {
+            int at = 0;
+            for (int i = 0; i < query.length(); i++) {
+                at = name.indexOf(query.charAt(i), at) + 1;
+                if (at == 0) return false;
+            }
+            return true;
         }
         
-        public static void setAutoTags(Item item, List<String> tags) {
-            CACHE.put(item, tags);
+        // 0: prefix, 1: prefix of the tag part, 2: at a word boundary, 3: substring, 4: fuzzy
+        private static int quality(String query, String name) {
+            int at = name.indexOf(query);
+            if (at < 0) return 4;
+            if (at == 0) return 0;
+            if (at == name.indexOf(':') + 1) return 1;
+            return Character.isLetterOrDigit(name.charAt(at - 1)) ? 3 : 2;
         }
         
-        public static void clear() {
-            CACHE.clear();
+        private List<String> rank(String lower, int[] ids, PlayerTagData usage, int limit) {
+            int[] quality = new int[ids.length];
+            int[] used = new int[ids.length];
+            Integer[] order = new Integer[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                quality[i] = quality(lower, lowerNames.get(ids[i]));
+                used[i] = usage != null ? usage.getTagUsage(TagRegistry.name(ids[i])) : 0;
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> {
+                if (quality[a] != quality[b]) return Integer.compare(quality[a], quality[b]);
+                if (used[a] != used[b]) return Integer.compare(used[b], used[a]);
+                String nameA = lowerNames.get(ids[a]);
+                String nameB = lowerNames.get(ids[b]);
+                return nameA.length() != nameB.length() ?
+                    Integer.compare(nameA.length(), nameB.length()) : nameA.compareTo(nameB);
+            });
+            
+            List<String> result = new ArrayList<>(Math.min(limit, ids.length));
+            for (int i = 0; i < Math.min(limit, ids.length); i++) {
+                result.add(TagRegistry.name(ids[order[i]]));
+            }
+            return Collections.unmodifiableList(result);
         }
     }
     
+    private static final Map<UUID, PlayerTagData> PLAYER_DATA = new ConcurrentHashMap<>();
+    
+    public static PlayerTagData getPlayerData(EntityPlayer player) {
+        return PLAYER_DATA.computeIfAbsent(player.getUniqueID(), k -> new PlayerTagData());
+    }
+    
     // Player Tag Capability
     public static class PlayerTagData {
         private final Map<String, List<String>> favoriteTags = new HashMap<>();
         private final Map<String, Integer> tagUsageCount = new HashMap<>();
         private final List<String> recentSearches = new ArrayList<>();
         private String currentSearch = "";
+        private long usageVersion;
         
         public void incrementTagUsage(String tag) {
             tagUsageCount.put(tag, tagUsageCount.getOrDefault(tag, 0) + 1);
+            usageVersion++;
         }
         
         public int getTagUsage(String tag) {
             return tagUsageCount.getOrDefault(tag, 0);
         }
         
+        /** Changes whenever a usage count does, so rankings can be memoized. */
+        public long getUsageVersion() {
+            return usageVersion;
+        }
+        
         public void addFavoriteTag(String category, String tag) {
             favoriteTags.computeIfAbsent(category, k -> new ArrayList<>()).add(tag);
         }
@@ -472,6 +2417,7 @@ public class THREETAGMod {
             favoriteTags.clear();
             tagUsageCount.clear();
             recentSearches.clear();
+            usageVersion++;
             
             // Load favorite tags
             if (compound.hasKey("favorites")) {
@@ -512,6 +2458,7 @@ public class THREETAGMod {
 class GuiTagManager extends GuiScreen {
     private static final ResourceLocation BACKGROUND = 
         new ResourceLocation(THREETAGMod.MODID, "textures/gui/tag_manager.png");
+    private static final THREETAGMod.TagSuggestionIndex SUGGESTIONS = new THREETAGMod.TagSuggestionIndex();
     
     private final EntityPlayer player;
     private final InventoryPlayer inventory;
@@ -522,6 +2469,10 @@ class GuiTagManager extends GuiScreen {
     private boolean searchMode = false;
     private int scrollOffset = 0;
     private final int TAGS_PER_PAGE = 8;
+    private final OverlayBatch overlay = new OverlayBatch();
+    private final Map<String, Integer> stringWidths = new HashMap<>();
+    private final Map<String, Integer> tagColors = new HashMap<>();
+    private SelectionLayout layout;
     
     public GuiTagManager(EntityPlayer player) {
         this.player = player;
@@ -533,6 +2484,9 @@ class GuiTagManager extends GuiScreen {
         super.initGui();
         this.guiLeft = (this.width - this.xSize) / 2;
         this.guiTop = (this.height - this.ySize) / 2;
+        stringWidths.clear();
+        tagColors.clear();
+        layout = null;
     }
     
     @Override
@@ -547,32 +2501,47 @@ class GuiTagManager extends GuiScreen {
         // Draw title
         String title = "THREETAG Manager";
         this.fontRenderer.drawString(title, 
-            guiLeft + (xSize - fontRenderer.getStringWidth(title)) / 2,
+            guiLeft + (xSize - stringWidth(title)) / 2,
             guiTop + 6, 0x404040);
         
         // Draw inventory
-        drawInventorySlots();
+        drawInventorySlots(mouseX, mouseY);
         
-        // Draw tag categories
+        // Queue tag overlays; the panels side by side share one draw call
         drawTagCategories(mouseX, mouseY);
-        
-        // Draw selected tags
         drawSelectedTags();
-        
-        // Draw search box
         drawSearchBox(mouseX, mouseY);
-        
-        // Draw tag suggestions
         if (!searchText.isEmpty()) {
+            overlay.layer(); // Suggestions pop up over an expanded category
             drawTagSuggestions(mouseX, mouseY);
         }
+        overlay.draw(fontRenderer);
         
         super.drawScreen(mouseX, mouseY, partialTicks);
     }
     
-    private void drawInventorySlots() {
+    private int stringWidth(String text) {
+        Integer width = stringWidths.get(text);
+        if (width == null) {
+            width = fontRenderer.getStringWidth(text);
+            stringWidths.put(text, width);
+        }
+        return width;
+    }
+    
+    private int tagColor(String tag) {
+        Integer color = tagColors.get(tag);
+        if (color == null) {
+            color = THREETAGMod.ItemTagManager.getTagColor(tag);
+            tagColors.put(tag, color);
+        }
+        return color;
+    }
+    
+    private void drawInventorySlots(int mouseX, int mouseY) {
         int startX = guiLeft + 8;
         int startY = guiTop + 20;
+        hoveredSlot = null;
         
         RenderHelper.enableGUIStandardItemLighting();
         GlStateManager.pushMatrix();
@@ -600,7 +2569,7 @@ class GuiTagManager extends GuiScreen {
                         // Draw tags if item has them
                         List<String> tags = THREETAGMod.ItemTagManager.getTags(stack);
                         if (!tags.isEmpty()) {
-                            drawItemTags(x + 1, y + 1, tags);
+                            drawItemTags(startX + x + 1, startY + y + 1, tags);
                         }
                     }
                     
@@ -623,21 +2592,16 @@ class GuiTagManager extends GuiScreen {
     }
     
     private void drawItemTags(int x, int y, List<String> tags) {
-        GlStateManager.pushMatrix();
-        GlStateManager.translate(0, 0, 300); // Draw above items
-        
-        // Draw up to 3 tags
+        // Draw up to 3 tags, above the items
         for (int i = 0; i < Math.min(3, tags.size()); i++) {
             String tag = tags.get(i);
-            int color = THREETAGMod.ItemTagManager.getTagColor(tag);
+            int color = tagColor(tag);
             int tagX = x + i * 5;
             int tagY = y - 4;
             
             // Draw colored tag indicator
-            drawRect(tagX, tagY, tagX + 4, tagY + 4, color | 0xFF000000);
+            overlay.quad(tagX, tagY, tagX + 4, tagY + 4, 300, color | 0xFF000000);
         }
-        
-        GlStateManager.popMatrix();
     }
     
     private void drawTagCategories(int mouseX, int mouseY) {
@@ -654,16 +2618,16 @@ class GuiTagManager extends GuiScreen {
                                mouseY >= y && mouseY < y + 20;
             
             // Draw category background
-            drawRect(startX, y, startX + 70, y + 20, 
+            overlay.quad(startX, y, startX + 70, y + 20, 
                     mouseOver ? 0x80333333 : 0x80222222);
             
             // Draw category name
-            fontRenderer.drawString(entry.getValue().name, 
+            overlay.text(entry.getValue().name, 
                 startX + 5, y + 6, 0xFFFFFF);
             
             // Draw arrow if expanded
             if (mouseOver) {
-                fontRenderer.drawString("▶", startX + 60, y + 6, 0xFFFFFF);
+                overlay.text("▶", startX + 60, y + 6, 0xFFFFFF);
                 
                 // Draw tags in this category
                 drawCategoryTags(entry.getKey(), entry.getValue(), 
@@ -676,7 +2640,7 @@ class GuiTagManager extends GuiScreen {
     
     private void drawCategoryTags(String categoryId, THREETAGMod.TagCategory category, 
                                  int x, int y, int mouseX, int mouseY) {
-        drawRect(x, y, x + 100, y + 150, 0x80222222);
+        overlay.quad(x, y, x + 100, y + 150, 0x80222222);
         
         int tagY = y + 5;
         for (String tag : category.tags) {
@@ -686,58 +2650,94 @@ class GuiTagManager extends GuiScreen {
                                mouseY >= tagY && mouseY < tagY + 15;
             
             // Draw tag background
-            drawRect(x + 2, tagY, x + 98, tagY + 15, 
+            overlay.quad(x + 2, tagY, x + 98, tagY + 15, 
                     selected ? 0x803366FF : 
                     mouseOver ? 0x80666666 : 0x80444444);
             
             // Draw tag color indicator
             int color = category.getTagColor(tag);
-            drawRect(x + 3, tagY + 3, x + 8, tagY + 12, color | 0xFF000000);
+            overlay.quad(x + 3, tagY + 3, x + 8, tagY + 12, color | 0xFF000000);
             
             // Draw tag name
-            fontRenderer.drawString(tag, x + 15, tagY + 4, 0xFFFFFF);
+            overlay.text(tag, x + 15, tagY + 4, 0xFFFFFF);
             
             tagY += 18;
         }
     }
     
-    private void drawSelectedTags() {
+    // Where the selected tag chips and the apply button go
+    private static final class SelectionLayout {
+        final String[] display;
+        final int[] colors;
+        final int[] x, y, width;
+        final int applyY;
+        
+        SelectionLayout(int applyY, String[] display, int[] colors, int[] x, int[] y, int[] width) {
+            this.display = display;
+            this.colors = colors;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.applyY = applyY;
+        }
+    }
+    
+    // Rebuilt only when the selection or the screen size changes
+    private SelectionLayout layout() {
+        if (layout != null) return layout;
+        
+        int count = selectedTags.size();
+        String[] display = new String[count];
+        int[] colors = new int[count];
+        int[] x = new int[count], y = new int[count], width = new int[count];
         int startX = guiLeft + 8;
-        int startY = guiTop + 100;
-        
-        fontRenderer.drawString("Selected Tags:", startX, startY, 0x404040);
-        
         int tagX = startX;
-        int tagY = startY + 12;
+        int tagY = guiTop + 112;
         
-        for (String tag : selectedTags) {
-            String display = THREETAGMod.ItemTagManager.getTagDisplay(tag);
-            int color = THREETAGMod.ItemTagManager.getTagColor(tag);
-            int width = fontRenderer.getStringWidth(display) + 10;
+        for (int i = 0; i < count; i++) {
+            String tag = selectedTags.get(i);
+            display[i] = THREETAGMod.ItemTagManager.getTagDisplay(tag);
+            colors[i] = tagColor(tag);
+            width[i] = stringWidth(display[i]) + 10;
             
-            if (tagX + width > guiLeft + 170) {
+            if (tagX + width[i] > guiLeft + 170) {
                 tagX = startX;
                 tagY += 20;
             }
+            x[i] = tagX;
+            y[i] = tagY;
+            tagX += width[i] + 5;
+        }
+        
+        layout = new SelectionLayout(tagY + 25, display, colors, x, y, width);
+        return layout;
+    }
+    
+    private void drawSelectedTags() {
+        overlay.text("Selected Tags:", guiLeft + 8, guiTop + 100, 0x404040);
+        
+        SelectionLayout layout = layout();
+        for (int i = 0; i < layout.display.length; i++) {
+            int tagX = layout.x[i];
+            int tagY = layout.y[i];
+            int width = layout.width[i];
             
             // Draw tag background
-            drawRect(tagX, tagY, tagX + width, tagY + 15, 0x80222222);
-            drawRect(tagX + 1, tagY + 1, tagX + 4, tagY + 14, color | 0xFF000000);
+            overlay.quad(tagX, tagY, tagX + width, tagY + 15, 0x80222222);
+            overlay.quad(tagX + 1, tagY + 1, tagX + 4, tagY + 14, layout.colors[i] | 0xFF000000);
             
             // Draw tag text
-            fontRenderer.drawString(display, tagX + 8, tagY + 4, 0xFFFFFF);
+            overlay.text(layout.display[i], tagX + 8, tagY + 4, 0xFFFFFF);
             
             // Draw remove button
-            drawRect(tagX + width - 12, tagY + 3, tagX + width - 3, tagY + 12, 0x80FF3333);
-            fontRenderer.drawString("×", tagX + width - 10, tagY + 4, 0xFFFFFF);
-            
-            tagX += width + 5;
+            overlay.quad(tagX + width - 12, tagY + 3, tagX + width - 3, tagY + 12, 0x80FF3333);
+            overlay.text("×", tagX + width - 10, tagY + 4, 0xFFFFFF);
         }
         
         // Apply tags button
         if (!selectedTags.isEmpty()) {
-            drawRect(guiLeft + 8, tagY + 25, guiLeft + 80, tagY + 45, 0x8033CC33);
-            fontRenderer.drawString("Apply Tags", guiLeft + 15, tagY + 32, 0xFFFFFF);
+            overlay.quad(guiLeft + 8, layout.applyY, guiLeft + 80, layout.applyY + 20, 0x8033CC33);
+            overlay.text("Apply Tags", guiLeft + 15, layout.applyY + 7, 0xFFFFFF);
         }
     }
     
@@ -745,11 +2745,11 @@ class GuiTagManager extends GuiScreen {
         int boxX = guiLeft + 180;
         int boxY = guiTop + 140;
         
-        drawRect(boxX, boxY, boxX + 70, boxY + 20, 0x80222222);
-        fontRenderer.drawString("Search:", boxX + 5, boxY - 12, 0x404040);
+        overlay.quad(boxX, boxY, boxX + 70, boxY + 20, 0x80222222);
+        overlay.text("Search:", boxX + 5, boxY - 12, 0x404040);
         
         String displayText = searchMode ? searchText + "_" : "Click to search";
-        fontRenderer.drawString(displayText, boxX + 5, boxY + 6, 
+        overlay.text(displayText, boxX + 5, boxY + 6, 
                                searchMode ? 0xFFFFFF : 0x888888);
     }
     
@@ -761,7 +2761,7 @@ class GuiTagManager extends GuiScreen {
         int startY = guiTop + 165;
         int maxHeight = 100;
         
-        drawRect(startX, startY, startX + 100, 
+        overlay.quad(startX, startY, startX + 100, 
                 startY + Math.min(suggestions.size() * 15, maxHeight), 0x80222222);
         
         for (int i = 0; i < Math.min(suggestions.size(), maxHeight / 15); i++) {
@@ -771,28 +2771,16 @@ class GuiTagManager extends GuiScreen {
                                mouseY >= y && mouseY < y + 15;
             
             if (mouseOver) {
-                drawRect(startX, y, startX + 100, y + 15, 0x80666666);
+                overlay.quad(startX, y, startX + 100, y + 15, 0x80666666);
             }
             
-            fontRenderer.drawString(suggestion, startX + 5, y + 3, 0xFFFFFF);
+            overlay.text(suggestion, startX + 5, y + 3, 0xFFFFFF);
         }
     }
     
     private List<String> getTagSuggestions(String query) {
-        List<String> suggestions = new ArrayList<>();
-        query = query.toLowerCase();
-        
-        for (Map.Entry<String, THREETAGMod.TagCategory> entry : 
-             THREETAGMod.TAG_CATEGORIES.entrySet()) {
-            for (String tag : entry.getValue().tags) {
-                String fullTag = entry.getKey() + ":" + tag;
-                if (fullTag.toLowerCase().contains(query)) {
-                    suggestions.add(fullTag);
-                }
-            }
-        }
-        
-        return suggestions.stream().limit(10).collect(Collectors.toList());
+        // Memoized per query, so calling it every frame is cheap
+        return SUGGESTIONS.suggest(query, THREETAGMod.getPlayerData(player), 10);
     }
     
     @Override
@@ -881,6 +2869,7 @@ class GuiTagManager extends GuiScreen {
     }
     
     private void toggleTagSelection(String tag) {
+        layout = null;
         if (selectedTags.contains(tag)) {
             selectedTags.remove(tag);
         } else {
@@ -907,41 +2896,36 @@ class GuiTagManager extends GuiScreen {
             }
         }
         
+        // Custom tags only exist once something has been tagged with them
+        String custom = search.toLowerCase(Locale.ROOT);
+        if (custom.indexOf(':') > 0 && THREETAGMod.TagRegistry.find(custom) >= 0) {
+            toggleTagSelection(custom);
+            return;
+        }
+        
         player.sendMessage(new TextComponentString(
             TextFormatting.RED + "Invalid tag: " + search));
     }
     
     private int findApplyButtonY() {
-        // Calculate where the apply button is based on selected tags
-        int startY = guiTop + 100;
-        int tagY = startY + 12;
-        int tagX = guiLeft + 8;
-        
-        for (String tag : selectedTags) {
-            String display = THREETAGMod.ItemTagManager.getTagDisplay(tag);
-            int width = fontRenderer.getStringWidth(display) + 10;
-            
-            if (tagX + width > guiLeft + 170) {
-                tagX = guiLeft + 8;
-                tagY += 20;
-            }
-            
-            tagX += width + 5;
-        }
-        
-        return tagY + 25;
+        return layout().applyY;
     }
     
     private void applyTagsToHoveredItem() {
         if (hoveredSlot != null && hoveredSlot.getHasStack()) {
             ItemStack stack = hoveredSlot.getStack();
             THREETAGMod.ItemTagManager.setTags(stack, selectedTags);
+            THREETAGMod.PlayerTagData data = THREETAGMod.getPlayerData(player);
+            for (String tag : selectedTags) {
+                data.incrementTagUsage(tag);
+            }
             
             player.sendMessage(new TextComponentString(
                 TextFormatting.GREEN + "Applied " + selectedTags.size() + " tags to " + 
                 stack.getDisplayName()));
             
             selectedTags.clear();
+            layout = null;
         } else {
             player.sendMessage(new TextComponentString(
                 TextFormatting.RED + "No item selected! Hover over an item in your inventory."));
@@ -949,28 +2933,17 @@ class GuiTagManager extends GuiScreen {
     }
     
     private void checkSelectedTagRemoval(int mouseX, int mouseY) {
-        int startX = guiLeft + 8;
-        int startY = guiTop + 112;
-        int tagX = startX;
-        int tagY = startY;
-        
-        for (String tag : selectedTags) {
-            String display = THREETAGMod.ItemTagManager.getTagDisplay(tag);
-            int width = fontRenderer.getStringWidth(display) + 10;
-            
-            if (tagX + width > guiLeft + 170) {
-                tagX = startX;
-                tagY += 20;
-            }
+        SelectionLayout layout = layout();
+        for (int i = 0; i < layout.display.length; i++) {
+            int right = layout.x[i] + layout.width[i];
             
             // Check remove button
-            if (mouseX >= tagX + width - 12 && mouseX < tagX + width - 3 &&
-                mouseY >= tagY + 3 && mouseY < tagY + 12) {
-                selectedTags.remove(tag);
+            if (mouseX >= right - 12 && mouseX < right - 3 &&
+                mouseY >= layout.y[i] + 3 && mouseY < layout.y[i] + 12) {
+                selectedTags.remove(i);
+                this.layout = null;
                 return;
             }
-            
-            tagX += width + 5;
         }
     }
     
@@ -980,8 +2953,266 @@ class GuiTagManager extends GuiScreen {
     }
 }
 
+// Tag search over any open container: slots that don't match the query are dimmed
+@SideOnly(Side.CLIENT)
+class ContainerSearchOverlay {
+    private static final int DIM_COLOR = 0xC0101010;
+    
+    private String query = "";
+    private THREETAGMod.TagQuery parsed;
+    private boolean typing;
+    private int queryVersion;
+    
+    // Per slot of the last container: the tag set its match was computed from
+    private Container container;
+    private int cachedVersion = -1;
+    private THREETAGMod.TagSet[] slotTags = new THREETAGMod.TagSet[0];
+    private boolean[] matches = new boolean[0];
+    
+    private final OverlayBatch batch = new OverlayBatch();
+    
+    boolean isTyping() {
+        return typing;
+    }
+    
+    void startTyping() {
+        typing = true;
+    }
+    
+    /** Edits the query; returns whether the key was used. */
+    boolean keyTyped(char typedChar, int keyCode) {
+        if (!typing) return false;
+        
+        if (keyCode == Keyboard.KEY_ESCAPE) {
+            typing = false;
+            setQuery("");
+        } else if (keyCode == Keyboard.KEY_RETURN) {
+            typing = false;
+        } else if (keyCode == Keyboard.KEY_BACK) {
+            if (!query.isEmpty()) {
+                setQuery(query.substring(0, query.length() - 1));
+            }
+        } else if (typedChar >= ' ' && typedChar != 127) {
+            setQuery(query + typedChar);
+        }
+        return true;
+    }
+    
+    private void setQuery(String query) {
+        this.query = query;
+        queryVersion++;
+        try {
+            parsed = query.trim().isEmpty() ? null : THREETAGMod.TagQuery.parse(query);
+        } catch (IllegalArgumentException e) {
+            parsed = null; // Incomplete while typing, e.g. "a &"
+        }
+    }
+    
+    // Forget cached matches when the GUI changes; the query is kept across containers
+    void reset() {
+        typing = false;
+        container = null;
+    }
+    
+    /**
+     * Draws the dimming for one frame, in the container's foreground
+     * coordinates. A slot's match is only re-evaluated when the query or
+     * its tag set changes; decoded tag sets are cached per NBT list, so
+     * unchanged stacks hand back the same instance.
+     */
+    void draw(GuiContainer gui, net.minecraft.client.gui.FontRenderer font) {
+        if (parsed == null && !typing && query.isEmpty()) return;
+        
+        List<Slot> slots = gui.inventorySlots.inventorySlots;
+        if (gui.inventorySlots != container || slots.size() != matches.length) {
+            container = gui.inventorySlots;
+            slotTags = new THREETAGMod.TagSet[slots.size()];
+            matches = new boolean[slots.size()];
+            cachedVersion = -1;
+        }
+        boolean queryChanged = cachedVersion != queryVersion;
+        cachedVersion = queryVersion;
+        
+        for (int i = 0; parsed != null && i < slots.size(); i++) {
+            Slot slot = slots.get(i);
+            ItemStack stack = slot.getStack();
+            THREETAGMod.TagSet tags = stack.isEmpty() ? null : THREETAGMod.ItemTagManager.getTagSet(stack);
+            
+            if (queryChanged || tags != slotTags[i]) {
+                slotTags[i] = tags;
+                matches[i] = tags != null && parsed.matches(tags);
+            }
+            if (!matches[i]) {
+                batch.quad(slot.xPos, slot.yPos, slot.xPos + 16, slot.yPos + 16, 300, DIM_COLOR);
+            }
+        }
+        
+        String label = "Tag search: " + query + (typing ? "_" : "");
+        batch.quad(0, -14, font.getStringWidth(label) + 6, -2, 0xC0000000);
+        batch.text(label, 3, -12, parsed != null || query.trim().isEmpty() ? 0xFFFFFF : 0xFF5555);
+        batch.draw(font);
+    }
+}
+
+// Overlay quads and text for one frame. Each layer's quads go out in a single draw call, then
+// its text; a panel that overlaps others starts a new layer so their text doesn't show through
+@SideOnly(Side.CLIENT)
+class OverlayBatch {
+    private float[] quads = new float[5 * 64]; // x1, y1, x2, y2, z
+    private int[] colors = new int[64];
+    private int quadCount;
+    private final List<String> texts = new ArrayList<>();
+    private int[] textPositions = new int[3 * 32]; // x, y, color
+    // Quad count and text count where each layer ends
+    private int[] layerEnds = new int[2 * 4];
+    private int layerCount;
+    
+    void quad(int x1, int y1, int x2, int y2, int color) {
+        quad(x1, y1, x2, y2, 0, color);
+    }
+    
+    /** Everything queued after this is drawn over everything before, text included. */
+    void layer() {
+        int layerTexts = layerCount > 0 ? layerEnds[layerCount * 2 - 1] : 0;
+        if (texts.size() == layerTexts) return; // Nothing of this layer to draw over yet
+        
+        if (layerCount * 2 == layerEnds.length) {
+            layerEnds = Arrays.copyOf(layerEnds, layerEnds.length * 2);
+        }
+        layerEnds[layerCount * 2] = quadCount;
+        layerEnds[layerCount * 2 + 1] = texts.size();
+        layerCount++;
+    }
+    
+    void quad(int x1, int y1, int x2, int y2, float z, int color) {
+        if (quadCount == colors.length) {
+            quads = Arrays.copyOf(quads, quads.length * 2);
+            colors = Arrays.copyOf(colors, colors.length * 2);
+        }
+        int at = quadCount * 5;
+        quads[at] = x1;
+        quads[at + 1] = y1;
+        quads[at + 2] = x2;
+        quads[at + 3] = y2;
+        quads[at + 4] = z;
+        colors[quadCount++] = color;
+    }
+    
+    void text(String text, int x, int y, int color) {
+        int at = texts.size() * 3;
+        if (at == textPositions.length) {
+            textPositions = Arrays.copyOf(textPositions, textPositions.length * 2);
+        }
+        textPositions[at] = x;
+        textPositions[at + 1] = y;
+        textPositions[at + 2] = color;
+        texts.add(text);
+    }
+    
+    void draw(net.minecraft.client.gui.FontRenderer font) {
+        int quadStart = 0, textStart = 0;
+        for (int layer = 0; layer < layerCount; layer++) {
+            drawQuads(quadStart, layerEnds[layer * 2]);
+            drawTexts(font, textStart, layerEnds[layer * 2 + 1]);
+            quadStart = layerEnds[layer * 2];
+            textStart = layerEnds[layer * 2 + 1];
+        }
+        drawQuads(quadStart, quadCount);
+        drawTexts(font, textStart, texts.size());
+        quadCount = 0;
+        layerCount = 0;
+        texts.clear();
+    }
+    
+    private void drawQuads(int from, int to) {
+        if (to > from) {
+            Tessellator tessellator = Tessellator.getInstance();
+            BufferBuilder buffer = tessellator.getBuffer();
+            GlStateManager.enableBlend();
+            GlStateManager.disableTexture2D();
+            GlStateManager.tryBlendFuncSeparate(GlStateManager.SourceFactor.SRC_ALPHA,
+                GlStateManager.DestFactor.ONE_MINUS_SRC_ALPHA, GlStateManager.SourceFactor.ONE,
+                GlStateManager.DestFactor.ZERO);
+            
+            buffer.begin(GL11.GL_QUADS, DefaultVertexFormats.POSITION_COLOR);
+            for (int i = from; i < to; i++) {
+                int at = i * 5;
+                int color = colors[i];
+                int a = color >>> 24, r = (color >> 16) & 0xFF, g = (color >> 8) & 0xFF, b = color & 0xFF;
+                buffer.pos(quads[at], quads[at + 3], quads[at + 4]).color(r, g, b, a).endVertex();
+                buffer.pos(quads[at + 2], quads[at + 3], quads[at + 4]).color(r, g, b, a).endVertex();
+                buffer.pos(quads[at + 2], quads[at + 1], quads[at + 4]).color(r, g, b, a).endVertex();
+                buffer.pos(quads[at], quads[at + 1], quads[at + 4]).color(r, g, b, a).endVertex();
+            }
+            tessellator.draw();
+            
+            GlStateManager.enableTexture2D();
+            GlStateManager.disableBlend();
+        }
+    }
+    
+    private void drawTexts(net.minecraft.client.gui.FontRenderer font, int from, int to) {
+        for (int i = from; i < to; i++) {
+            font.drawString(texts.get(i), textPositions[i * 3], textPositions[i * 3 + 1], textPositions[i * 3 + 2]);
+        }
+    }
+}
+
 // Event Handler
 class TagEventHandler {
+    @SubscribeEvent
+    public void onContainerOpen(net.minecraftforge.event.entity.player.PlayerContainerEvent.Open event) {
+        THREETAGMod.TAG_INDEX.watch(event.getContainer(), event.getEntityPlayer());
+    }
+    
+    @SubscribeEvent
+    public void onContainerClose(net.minecraftforge.event.entity.player.PlayerContainerEvent.Close event) {
+        THREETAGMod.TAG_INDEX.unwatch(event.getContainer());
+    }
+    
+    @SubscribeEvent
+    public void onWorldLoad(net.minecraftforge.event.world.WorldEvent.Load event) {
+        World world = event.getWorld();
+        if (!world.isRemote && world.provider.getDimension() == 0) {
+            THREETAGMod.TagIdMap.load(world);
+        }
+    }
+    
+    @SubscribeEvent
+    public void onWorldUnload(net.minecraftforge.event.world.WorldEvent.Unload event) {
+        World world = event.getWorld();
+        if (!world.isRemote && world.provider.getDimension() == 0) {
+            THREETAGMod.TagIdMap.unload();
+        }
+    }
+    
+    @SubscribeEvent
+    public void onBlockBreak(net.minecraftforge.event.world.BlockEvent.BreakEvent event) {
+        if (!event.getWorld().isRemote) {
+            THREETAGMod.TAG_INDEX.removeBlock(event.getWorld().provider.getDimension(), event.getPos());
+        }
+    }
+    
+    @SubscribeEvent
+    public void onChunkUnload(net.minecraftforge.event.world.ChunkEvent.Unload event) {
+        World world = event.getWorld();
+        if (!world.isRemote) {
+            THREETAGMod.TAG_INDEX.removeChunk(world.provider.getDimension(), event.getChunk().x, event.getChunk().z);
+        }
+    }
+    
+    @SubscribeEvent
+    public void onPlayerLogin(net.minecraftforge.fml.common.gameevent.PlayerEvent.PlayerLoggedInEvent event) {
+        THREETAGMod.TAG_INDEX.watch(event.player.inventoryContainer, event.player);
+    }
+    
+    @SubscribeEvent
+    public void onPlayerLogout(net.minecraftforge.fml.common.gameevent.PlayerEvent.PlayerLoggedOutEvent event) {
+        THREETAGMod.TAG_INDEX.unwatch(event.player.inventoryContainer);
+        THREETAGMod.TAG_INDEX.removeInventory(
+            new THREETAGMod.TagIndex.InventoryRef(0, null, event.player.getUniqueID()));
+    }
+    
     @SubscribeEvent
     @SideOnly(Side.CLIENT)
     public void onKeyInput(InputEvent.KeyInputEvent event) {
@@ -1008,6 +3239,76 @@ class TagEventHandler {
         }
     }
     
+    @SideOnly(Side.CLIENT)
+    private ContainerSearchOverlay searchOverlay;
+    
+    @SideOnly(Side.CLIENT)
+    private ContainerSearchOverlay searchOverlay() {
+        if (searchOverlay == null) {
+            searchOverlay = new ContainerSearchOverlay();
+        }
+        return searchOverlay;
+    }
+    
+    @SubscribeEvent
+    @SideOnly(Side.CLIENT)
+    public void onGuiOpen(net.minecraftforge.client.event.GuiOpenEvent event) {
+        searchOverlay().reset();
+    }
+    
+    @SubscribeEvent
+    @SideOnly(Side.CLIENT)
+    public void onGuiKeyboard(net.minecraftforge.client.event.GuiScreenEvent.KeyboardInputEvent.Pre event) {
+        if (!(event.getGui() instanceof GuiContainer) || !Keyboard.getEventKeyState()) return;
+        
+        ContainerSearchOverlay overlay = searchOverlay();
+        int key = Keyboard.getEventKey();
+        if (overlay.isTyping()) {
+            // Swallow keys so typing doesn't close the container or move items
+            event.setCanceled(overlay.keyTyped(Keyboard.getEventCharacter(), key));
+        } else if (key != 0 && key == THREETAGMod.tagSearchMode.getKeyCode() &&
+                   !hasFocusedTextField(event.getGui())) {
+            overlay.startTyping();
+            event.setCanceled(true);
+        }
+    }
+    
+    // GuiTextField fields per GUI class; the anvil's name and the creative search keep their keys
+    @SideOnly(Side.CLIENT)
+    private final Map<Class<?>, List<java.lang.reflect.Field>> textFields = new HashMap<>();
+    
+    @SideOnly(Side.CLIENT)
+    private boolean hasFocusedTextField(GuiScreen gui) {
+        List<java.lang.reflect.Field> fields = textFields.computeIfAbsent(gui.getClass(), type -> {
+            List<java.lang.reflect.Field> found = new ArrayList<>();
+            for (Class<?> c = type; c != null && c != GuiScreen.class; c = c.getSuperclass()) {
+                for (java.lang.reflect.Field field : c.getDeclaredFields()) {
+                    if (GuiTextField.class.isAssignableFrom(field.getType())) {
+                        field.setAccessible(true);
+                        found.add(field);
+                    }
+                }
+            }
+            return found;
+        });
+        
+        for (java.lang.reflect.Field field : fields) {
+            try {
+                GuiTextField textField = (GuiTextField) field.get(gui);
+                if (textField != null && textField.isFocused()) return true;
+            } catch (IllegalAccessException e) {
+                e.printStackTrace();
+            }
+        }
+        return false;
+    }
+    
+    @SubscribeEvent
+    @SideOnly(Side.CLIENT)
+    public void onDrawContainer(net.minecraftforge.client.event.GuiContainerEvent.DrawForeground event) {
+        searchOverlay().draw(event.getGuiContainer(), Minecraft.getMinecraft().fontRenderer);
+    }
+    
     @SubscribeEvent
     public void onItemTooltip(net.minecraftforge.event.entity.player.ItemTooltipEvent event) {
         ItemStack stack = event.getItemStack();
@@ -1037,3 +3338,111 @@ class TagEventHandler {
     }
 }
 
+
+// Server command
+class CommandThreeTag extends CommandBase {
+    private static final int MAX_LISTED = 10;
+    
+    @Override
+    public String getName() {
+        return "threetag";
+    }
+    
+    @Override
+    public String getUsage(ICommandSender sender) {
+        return "/threetag find <query>, e.g. rarity:legendary & !purpose:tool | reload";
+    }
+    
+    @Override
+    public int getRequiredPermissionLevel() {
+        return 0;
+    }
+    
+    @Override
+    public void execute(MinecraftServer server, ICommandSender sender, String[] args) throws CommandException {
+        if (args.length == 1 && args[0].equalsIgnoreCase("reload")) {
+            reloadRules(sender);
+            return;
+        }
+        if (args.length < 2 || !args[0].equalsIgnoreCase("find")) {
+            sender.sendMessage(new TextComponentString(TextFormatting.RED + "Usage: " + getUsage(sender)));
+            return;
+        }
+        
+        THREETAGMod.TagQuery query;
+        try {
+            query = THREETAGMod.TagQuery.parse(String.join(" ", Arrays.copyOfRange(args, 1, args.length)));
+        } catch (IllegalArgumentException e) {
+            sender.sendMessage(new TextComponentString(TextFormatting.RED + "Invalid query: " + e.getMessage()));
+            return;
+        }
+        
+        long start = System.nanoTime();
+        long[] postings = THREETAGMod.TAG_INDEX.find(query);
+        long micros = (System.nanoTime() - start) / 1000;
+        
+        // Group by inventory. Operators see every container; other players only
+        // those they have opened themselves, and never another player's inventory
+        UUID self = sender.getCommandSenderEntity() != null ? sender.getCommandSenderEntity().getUniqueID() : null;
+        boolean operator = sender.canUseCommand(2, getName());
+        Map<THREETAGMod.TagIndex.InventoryRef, Integer> counts = new LinkedHashMap<>();
+        for (long posting : postings) {
+            THREETAGMod.TagIndex.InventoryRef inventory = THREETAGMod.TAG_INDEX.inventory(posting);
+            boolean visible = inventory.player != null ? inventory.player.equals(self) :
+                operator || THREETAGMod.TAG_INDEX.hasOpened(inventory, self);
+            if (visible) {
+                counts.merge(inventory, 1, Integer::sum);
+            }
+        }
+        
+        int stacks = 0;
+        for (int count : counts.values()) {
+            stacks += count;
+        }
+        sender.sendMessage(new TextComponentString(String.format(
+            "%sFound %s%d %sstacks in %s%d %sinventories %s(%dus, %d slots indexed)",
+            TextFormatting.WHITE, TextFormatting.GREEN, stacks, TextFormatting.WHITE,
+            TextFormatting.GREEN, counts.size(), TextFormatting.WHITE,
+            TextFormatting.GRAY, micros, THREETAGMod.TAG_INDEX.size())));
+        
+        listInventories(sender, counts);
+    }
+    
+    private void reloadRules(ICommandSender sender) {
+        if (!sender.canUseCommand(2, getName())) {
+            sender.sendMessage(new TextComponentString(TextFormatting.RED + "Reloading auto-tag rules needs operator rights"));
+            return;
+        }
+        try {
+            sender.sendMessage(new TextComponentString(TextFormatting.GREEN + THREETAGMod.reloadAutoTagRules()));
+        } catch (IllegalArgumentException e) {
+            sender.sendMessage(new TextComponentString(TextFormatting.RED + "Rules not reloaded: " + e.getMessage()));
+        }
+    }
+    
+    private void listInventories(ICommandSender sender, Map<THREETAGMod.TagIndex.InventoryRef, Integer> counts) {
+        int listed = 0;
+        boolean stale = false;
+        long now = System.currentTimeMillis();
+        for (Map.Entry<THREETAGMod.TagIndex.InventoryRef, Integer> entry : counts.entrySet()) {
+            if (listed++ == MAX_LISTED) {
+                sender.sendMessage(new TextComponentString(TextFormatting.GRAY + "  ... and " +
+                    (counts.size() - MAX_LISTED) + " more"));
+                break;
+            }
+            THREETAGMod.TagIndex.InventoryRef inventory = entry.getKey();
+            String seen = "";
+            if (!THREETAGMod.TAG_INDEX.isLive(inventory)) {
+                stale = true;
+                seen = String.format(" %s(as of %d min ago)", TextFormatting.DARK_GRAY,
+                    (now - THREETAGMod.TAG_INDEX.lastSynced(inventory)) / 60000);
+            }
+            sender.sendMessage(new TextComponentString(String.format("%s  %s: %s%d%s",
+                TextFormatting.GRAY, inventory, TextFormatting.AQUA, entry.getValue(), seen)));
+        }
+        if (stale) {
+            sender.sendMessage(new TextComponentString(TextFormatting.DARK_GRAY +
+                "Closed containers show their contents when last opened; hoppers may have changed them since."));
+        }
+    }
+}
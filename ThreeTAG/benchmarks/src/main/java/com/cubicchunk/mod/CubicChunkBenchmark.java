@@ -0,0 +1,248 @@
+package com.cubicchunk.mod;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for the pure-Java hot paths of {@link CubicChunkMod}.
+ *
+ * Nothing here needs a running game: cubes are created with a null world,
+ * serialization works on cube file layout in memory without touching disk,
+ * and view diffing uses cube coordinates instead of an {@code EntityPlayer}.
+ * The Minecraft and Forge jars only have to be on the classpath; see pom.xml.
+ *
+ * Run {@link #main} (or JMH with {@code -prof gc}) to get throughput together
+ * with allocation rate per operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CubicChunkBenchmark {
+
+    @State(Scope.Thread)
+    public static class CubeState {
+        CubicChunkMod.CubicChunk chunk;
+        byte[] values;
+
+        @Setup
+        public void setup() {
+            chunk = new CubicChunkMod.CubicChunk(null, 0, 0, 0);
+            values = new byte[4096];
+            new Random(42).nextBytes(values);
+
+            for (int i = 0; i < 4096; i++) {
+                chunk.setBlockID(i & 15, i >> 8, (i >> 4) & 15, values[i]);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class GeneratorState {
+        CubicChunkMod.GenerationPipeline pipeline;
+        int x;
+
+        @Setup
+        public void setup() {
+            pipeline = new CubicChunkMod.GenerationPipeline();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class SerializationState {
+        CubicChunkMod.CubicChunk chunk;
+        byte[] buffer;
+        byte[] data;
+
+        @Setup
+        public void setup() {
+            chunk = new CubicChunkMod.CubicChunk(null, 0, 0, 0);
+            new CubicChunkMod.GenerationPipeline().generate(chunk, 0L);
+            buffer = new byte[CubicChunkMod.ChunkStorageSystem.CUBE_FILE_SIZE];
+            data = new byte[CubicChunkMod.ChunkStorageSystem.CUBE_FILE_SIZE];
+            chunk.copyDataTo(data, 0);
+        }
+
+        @TearDown
+        public void tearDown() {
+            chunk.release();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ViewState {
+        static final UUID VIEWER = new UUID(0, 1);
+
+        CubicChunkMod mod;
+        CubicChunkMod.ChunkLoadingManager.DimensionPartition partition;
+        boolean moved;
+
+        @Param({"4", "8"})
+        int radius;
+
+        @Setup
+        public void setup() {
+            mod = new CubicChunkMod();
+            partition = mod.new ChunkLoadingManager().partition(0);
+            partition.updateView(VIEWER, 0, 4, 0, radius);
+        }
+
+        @TearDown
+        public void tearDown() {
+            mod.shutdownExecutor();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class CursorState {
+        CubicChunkMod.CubeIndex index;
+        CubicChunkMod.WorldCursor cursor;
+
+        @Setup
+        public void setup() {
+            // A 3x3x3 block of loaded cubes; sweeps cover the whole 48^3 volume
+            index = new CubicChunkMod.CubeIndex();
+            for (int x = 0; x < 3; x++) {
+                for (int y = 0; y < 3; y++) {
+                    for (int z = 0; z < 3; z++) {
+                        CubicChunkMod.CubicChunk chunk = new CubicChunkMod.CubicChunk(null, x, y, z);
+                        chunk.setBlockID(x, y, z, (byte) 1);
+                        index.put(chunk.getChunkKey(), chunk);
+                    }
+                }
+            }
+            cursor = index.cursor();
+        }
+    }
+
+    @Benchmark
+    public int getIndex(CubeState state) {
+        CubicChunkMod.CubicChunk chunk = state.chunk;
+        int sum = 0;
+        for (int y = 0; y < 16; y++) {
+            for (int z = 0; z < 16; z++) {
+                for (int x = 0; x < 16; x++) {
+                    sum += chunk.getIndex(x, y, z);
+                }
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int getBlock(CubeState state) {
+        CubicChunkMod.CubicChunk chunk = state.chunk;
+        int sum = 0;
+        for (int y = 0; y < 16; y++) {
+            for (int z = 0; z < 16; z++) {
+                for (int x = 0; x < 16; x++) {
+                    sum += chunk.getBlockID(x, y, z);
+                }
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public void setBlock(CubeState state, Blackhole blackhole) {
+        CubicChunkMod.CubicChunk chunk = state.chunk;
+        byte[] values = state.values;
+        for (int i = 0; i < 4096; i++) {
+            chunk.setBlockID(i & 15, i >> 8, (i >> 4) & 15, values[i]);
+        }
+        blackhole.consume(chunk);
+    }
+
+    // Cubes lease pooled arrays, so each one is released like an unloaded cube
+    // rather than left to the pool's leak detection
+    @Benchmark
+    public void generateSurface(GeneratorState state, Blackhole blackhole) {
+        CubicChunkMod.CubicChunk chunk = new CubicChunkMod.CubicChunk(null, state.x++, 4, 0);
+        state.pipeline.generate(chunk, 0L);
+        blackhole.consume(chunk);
+        chunk.release();
+    }
+
+    @Benchmark
+    public void generateUnderground(GeneratorState state, Blackhole blackhole) {
+        CubicChunkMod.CubicChunk chunk = new CubicChunkMod.CubicChunk(null, state.x++, -4, 0);
+        state.pipeline.generate(chunk, 0L);
+        blackhole.consume(chunk);
+        chunk.release();
+    }
+
+    // Serialization only; cube file writes are dominated by the fsync and rename
+    @Benchmark
+    public byte[] serialize(SerializationState state) {
+        state.chunk.copyDataTo(state.buffer, 0);
+        return state.buffer;
+    }
+
+    @Benchmark
+    public void deserialize(SerializationState state, Blackhole blackhole) {
+        CubicChunkMod.CubicChunk loaded = new CubicChunkMod.CubicChunk(null, 0, 0, 0, false);
+        loaded.loadData(state.data, 0);
+        blackhole.consume(loaded);
+        loaded.release();
+    }
+
+    @Benchmark
+    public int updatePlayerView(ViewState state) {
+        // Step one cube east and back so every call diffs a moved view
+        state.moved = !state.moved;
+        state.partition.updateView(ViewState.VIEWER, state.moved ? 1 : 0, 4, 0, state.radius);
+
+        int changes = state.partition.chunksToLoad.size() + state.partition.chunksToUnload.size();
+        state.partition.chunksToLoad.clear();
+        state.partition.chunksToUnload.clear();
+        return changes;
+    }
+
+    @Benchmark
+    public int sweepWithCursor(CursorState state) {
+        CubicChunkMod.WorldCursor cursor = state.cursor;
+        int sum = 0;
+        for (int y = 0; y < 48; y++) {
+            for (int z = 0; z < 48; z++) {
+                for (int x = 0; x < 48; x++) {
+                    sum += cursor.moveTo(x, y, z).getBlockID();
+                }
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int sweepWithLookups(CursorState state) {
+        CubicChunkMod.CubeIndex index = state.index;
+        int sum = 0;
+        for (int y = 0; y < 48; y++) {
+            for (int z = 0; z < 48; z++) {
+                for (int x = 0; x < 48; x++) {
+                    CubicChunkMod.CubicChunk chunk =
+                        index.get(CubicChunkMod.CubeKeys.pack(x >> 4, y >> 4, z >> 4));
+                    sum += chunk.getBlockID(x & 15, y & 15, z & 15);
+                }
+            }
+        }
+        return sum;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+            .include(CubicChunkBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .build();
+        new Runner(options).run();
+    }
+}